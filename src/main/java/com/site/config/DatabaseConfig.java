@@ -10,11 +10,33 @@ import org.springframework.jdbc.datasource.init.ResourceDatabasePopulator;
 import javax.sql.DataSource;
 import lombok.extern.slf4j.Slf4j;
 import java.io.File;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
 
 @Slf4j
 @Configuration
 public class DatabaseConfig {
 
+    // 站点表在初始版本之后新增的字段及定义，新建数据库时由schema.sql直接创建
+    private static final Map<String, String> SITE_COLUMNS = new LinkedHashMap<>();
+
+    static {
+        SITE_COLUMNS.put("cache_ttl", "INTEGER DEFAULT 0");
+        SITE_COLUMNS.put("stale_while_revalidate", "INTEGER DEFAULT 0");
+        SITE_COLUMNS.put("stale_if_error", "INTEGER DEFAULT 0");
+        SITE_COLUMNS.put("html_cache_ttl", "INTEGER DEFAULT 0");
+        SITE_COLUMNS.put("cache_min_ttl", "INTEGER DEFAULT 0");
+        SITE_COLUMNS.put("cache_max_ttl", "INTEGER DEFAULT 0");
+        SITE_COLUMNS.put("honor_no_cache", "INTEGER DEFAULT 0");
+    }
+
     @Value("${spring.datasource.url}")
     private String jdbcUrl;
 
@@ -60,6 +82,8 @@ public class DatabaseConfig {
                 populator.execute(dataSource);
                 log.info("数据库初始化完成");
             }
+            // 在数据源交给MyBatis之前补齐字段，映射语句首次执行时表结构已是最新
+            migrateSiteColumns(dataSource);
         } catch (Exception e) {
             log.error("数据库初始化失败", e);
             throw new RuntimeException("数据库初始化失败", e);
@@ -67,4 +91,29 @@ public class DatabaseConfig {
         
         return dataSource;
     }
+
+    /**
+     * 已有数据库补充后续版本新增的站点字段：只添加表中缺少的字段，SQL执行失败时启动失败，不再忽略错误
+     */
+    private void migrateSiteColumns(DataSource dataSource) throws SQLException {
+        try (Connection connection = dataSource.getConnection();
+             Statement statement = connection.createStatement()) {
+            Set<String> existing = new HashSet<>();
+            try (ResultSet columns = statement.executeQuery("PRAGMA table_info(site)")) {
+                while (columns.next()) {
+                    existing.add(columns.getString("name").toLowerCase(Locale.ROOT));
+                }
+            }
+            if (existing.isEmpty()) {
+                // 表尚未创建，由初始化脚本按完整结构创建
+                return;
+            }
+            for (Map.Entry<String, String> column : SITE_COLUMNS.entrySet()) {
+                if (!existing.contains(column.getKey())) {
+                    statement.execute("ALTER TABLE site ADD COLUMN " + column.getKey() + " " + column.getValue());
+                    log.info("站点表已添加字段: {}", column.getKey());
+                }
+            }
+        }
+    }
 } 
\ No newline at end of file
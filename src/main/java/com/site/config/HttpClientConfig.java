@@ -1,30 +1,72 @@
 package com.site.config;
 
+import org.apache.http.HeaderElement;
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.conn.ConnectionKeepAliveStrategy;
 import org.apache.http.impl.client.CloseableHttpClient;
 import org.apache.http.impl.client.HttpClients;
 import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.apache.http.message.BasicHeaderElementIterator;
+import org.apache.http.protocol.HTTP;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.http.client.HttpComponentsClientHttpRequestFactory;
 import org.springframework.web.client.RestTemplate;
+import lombok.RequiredArgsConstructor;
+
+import java.util.concurrent.TimeUnit;
 
 @Configuration
+@RequiredArgsConstructor
 public class HttpClientConfig {
 
+    private final UpstreamProperties upstreamProperties;
+
     @Bean
     public PoolingHttpClientConnectionManager poolingConnectionManager() {
         PoolingHttpClientConnectionManager poolingConnectionManager = new PoolingHttpClientConnectionManager();
         // 最大连接数
-        poolingConnectionManager.setMaxTotal(1000);
+        poolingConnectionManager.setMaxTotal(upstreamProperties.getMaxTotal());
         // 同路由并发数
-        poolingConnectionManager.setDefaultMaxPerRoute(200);
+        poolingConnectionManager.setDefaultMaxPerRoute(upstreamProperties.getDefaultMaxPerRoute());
+        // 空闲连接复用前校验，避免拿到已被源站关闭的连接
+        poolingConnectionManager.setValidateAfterInactivity(upstreamProperties.getValidateAfterInactivity());
         return poolingConnectionManager;
     }
 
+    @Bean
+    public ConnectionKeepAliveStrategy keepAliveStrategy() {
+        return (response, context) -> {
+            // 优先使用源站Keep-Alive头中的timeout
+            BasicHeaderElementIterator it = new BasicHeaderElementIterator(response.headerIterator(HTTP.CONN_KEEP_ALIVE));
+            while (it.hasNext()) {
+                HeaderElement element = it.nextElement();
+                if ("timeout".equalsIgnoreCase(element.getName()) && element.getValue() != null) {
+                    try {
+                        return Long.parseLong(element.getValue()) * 1000;
+                    } catch (NumberFormatException ignore) {
+                        // 忽略非法值，使用默认保持时间
+                    }
+                }
+            }
+            return upstreamProperties.getKeepAlive();
+        };
+    }
+
     @Bean
     public CloseableHttpClient httpClient() {
+        RequestConfig requestConfig = RequestConfig.custom()
+                .setConnectTimeout(upstreamProperties.getConnectTimeout())
+                .setSocketTimeout(upstreamProperties.getSocketTimeout())
+                .setConnectionRequestTimeout(upstreamProperties.getConnectionRequestTimeout())
+                .build();
         return HttpClients.custom()
                 .setConnectionManager(poolingConnectionManager())
+                .setKeepAliveStrategy(keepAliveStrategy())
+                .setDefaultRequestConfig(requestConfig)
+                // 后台线程定期回收过期和空闲连接
+                .evictExpiredConnections()
+                .evictIdleConnections(upstreamProperties.getIdleTimeout(), TimeUnit.MILLISECONDS)
                 .build();
     }
 
@@ -45,4 +87,4 @@ public class HttpClientConfig {
     public RestTemplate restTemplate() {
         return new RestTemplate(clientHttpRequestFactory());
     }
-} 
\ No newline at end of file
+}
@@ -3,7 +3,9 @@ package com.site.config;
 import lombok.Data;
 import org.springframework.boot.context.properties.ConfigurationProperties;
 import org.springframework.stereotype.Component;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 @Data
 @Component
@@ -13,4 +15,61 @@ public class ProxyConfig {
     private boolean cacheEnabled;
     private List<String> staticExtensions;
     private List<String> forwardHeaders;
+    /**
+     * 异步代理模式：等待源站时释放Tomcat请求线程
+     */
+    private boolean asyncEnabled;
+    /**
+     * 合并请求等待回源结果的超时时间（毫秒）
+     */
+    private long singleFlightTimeout = 30000;
+    /**
+     * 内存缓存层总字节数上限
+     */
+    private long memoryCacheMaxBytes = 256L * 1024 * 1024;
+    /**
+     * 单个条目放入内存缓存层的大小上限（字节），更大的文件直接从磁盘发送
+     */
+    private long memoryCacheMaxEntrySize = 512 * 1024;
+    /**
+     * 内存缓存层内容保存在堆外直接内存中，需保证-XX:MaxDirectMemorySize不小于memoryCacheMaxBytes
+     */
+    private boolean memoryCacheOffHeap;
+    /**
+     * 新布局未命中时检查旧版布局并迁移，旧缓存清理完后可关闭以省去一次文件查询
+     */
+    private boolean legacyCacheMigration = true;
+    /**
+     * 缓存文件落盘策略：none不主动fsync，file在重命名前fsync文件内容，
+     * file-and-directory同时fsync所在目录
+     */
+    private FsyncPolicy cacheFsync = FsyncPolicy.NONE;
+    /**
+     * 磁盘缓存总字节数上限，0表示不限制
+     */
+    private long cacheMaxBytes;
+    /**
+     * 按站点名设置的磁盘缓存字节数上限
+     */
+    private Map<String, Long> cacheSiteMaxBytes = new HashMap<>();
+    /**
+     * 超过上限后淘汰到上限的该比例，避免每次只删除少量文件
+     */
+    private double cacheEvictTargetRatio = 0.9;
+    /**
+     * 缓存存储引擎：files每个对象一个文件，pack把小对象追加到段文件中
+     */
+    private CacheStorage cacheStorage = CacheStorage.FILES;
+    /**
+     * pack引擎下写入段文件的对象大小上限（字节），更大的对象仍按单独文件保存
+     */
+    private long cachePackMaxObjectSize = 32 * 1024;
+
+    public enum FsyncPolicy {
+        NONE, FILE, FILE_AND_DIRECTORY
+    }
+
+    public enum CacheStorage {
+        FILES, PACK
+    }
 } 
\ No newline at end of file
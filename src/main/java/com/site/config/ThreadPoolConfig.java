@@ -35,7 +35,22 @@ public class ThreadPoolConfig {
         executor.setMaxPoolSize(200);
         executor.setQueueCapacity(1000);
         executor.setThreadNamePrefix("Http-Client-");
-        executor.setRejectedExecutionHandler(new ThreadPoolExecutor.CallerRunsPolicy());
+        // 只执行非阻塞客户端的回调，饱和时拒绝（请求以失败结束），不回退到调用方线程
+        executor.setRejectedExecutionHandler(new ThreadPoolExecutor.AbortPolicy());
+        executor.initialize();
+        return executor;
+    }
+
+    @Bean("cacheFillExecutor")
+    public Executor cacheFillExecutor() {
+        ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+        // 每个正在回源的静态资源占用一个线程，下载速度只取决于源站
+        executor.setCorePoolSize(8);
+        executor.setMaxPoolSize(64);
+        executor.setQueueCapacity(0);
+        executor.setThreadNamePrefix("Cache-Fill-");
+        // 饱和时由请求自己直接回源转发，不在调用方线程中下载
+        executor.setRejectedExecutionHandler(new ThreadPoolExecutor.AbortPolicy());
         executor.initialize();
         return executor;
     }
@@ -51,4 +66,33 @@ public class ThreadPoolConfig {
         executor.initialize();
         return executor;
     }
+
+    @Bean("cacheRefreshExecutor")
+    public Executor cacheRefreshExecutor() {
+        ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+        executor.setCorePoolSize(4);
+        executor.setMaxPoolSize(16);
+        executor.setQueueCapacity(1000);
+        executor.setThreadNamePrefix("Cache-Refresh-");
+        // 拒绝策略：抛出异常，由调用方放弃本次后台刷新，不能阻塞请求线程
+        executor.setRejectedExecutionHandler(new ThreadPoolExecutor.AbortPolicy());
+        executor.initialize();
+        return executor;
+    }
+
+    @Bean("cacheWriteExecutor")
+    public Executor cacheWriteExecutor() {
+        ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+        executor.setCorePoolSize(4);
+        executor.setMaxPoolSize(8);
+        executor.setQueueCapacity(10000);
+        executor.setThreadNamePrefix("Cache-Write-");
+        // 拒绝策略：抛出异常，由CacheWriter丢弃本次写入并计数，不能阻塞请求线程
+        executor.setRejectedExecutionHandler(new ThreadPoolExecutor.AbortPolicy());
+        // 关闭时写完队列中的缓存
+        executor.setWaitForTasksToCompleteOnShutdown(true);
+        executor.setAwaitTerminationSeconds(30);
+        executor.initialize();
+        return executor;
+    }
 } 
\ No newline at end of file
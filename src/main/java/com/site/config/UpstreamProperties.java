@@ -0,0 +1,50 @@
+package com.site.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+import java.util.HashMap;
+import java.util.Map;
+
+@Data
+@Component
+@ConfigurationProperties(prefix = "upstream")
+public class UpstreamProperties {
+    /**
+     * 连接池最大连接数
+     */
+    private int maxTotal = 1000;
+    /**
+     * 每个源站默认最大连接数
+     */
+    private int defaultMaxPerRoute = 200;
+    /**
+     * 按站点名覆盖的最大连接数
+     */
+    private Map<String, Integer> siteMaxConnections = new HashMap<>();
+    /**
+     * 连接超时（毫秒）
+     */
+    private int connectTimeout = 10000;
+    /**
+     * 读取超时（毫秒）
+     */
+    private int socketTimeout = 30000;
+    /**
+     * 从连接池获取连接的等待时间（毫秒）
+     */
+    private int connectionRequestTimeout = 3000;
+    /**
+     * 空闲连接回收时间（毫秒）
+     */
+    private long idleTimeout = 60000;
+    /**
+     * 源站未声明Keep-Alive时的默认保持时间（毫秒）
+     */
+    private long keepAlive = 30000;
+    /**
+     * 连接空闲超过该时间后复用前先校验（毫秒）
+     */
+    private int validateAfterInactivity = 2000;
+}
@@ -1,24 +1,60 @@
 package com.site.controller;
 
 import com.site.config.ProxyConfig;
+import com.site.config.UpstreamProperties;
 import com.site.entity.Site;
 import com.site.util.HttpUtils;
+import com.site.util.CacheEntry;
+import com.site.util.CacheFill;
+import com.site.util.CacheMeta;
 import com.site.util.CacheUtil;
+import com.site.util.FetchedPage;
+import com.site.util.KeywordMatcher;
+import com.site.util.MemoryCache;
+import com.site.util.SingleFlight;
+import com.site.service.CacheRefreshService;
+import com.site.service.SiteKeywordsService;
 import com.site.service.SiteService;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpRange;
+import org.springframework.util.MimeTypeUtils;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.context.request.ServletWebRequest;
 
+import javax.servlet.AsyncContext;
+import javax.servlet.AsyncEvent;
+import javax.servlet.AsyncListener;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
+import java.io.ByteArrayInputStream;
 import java.io.InputStream;
-import java.io.ByteArrayOutputStream;
-import java.net.URL;
-import java.io.BufferedReader;
+import java.io.InputStreamReader;
+import java.io.IOException;
 import java.io.OutputStream;
-import java.net.HttpURLConnection;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.URI;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
 import java.util.Enumeration;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import org.apache.http.Header;
+import org.apache.http.HttpEntity;
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.client.methods.HttpEntityEnclosingRequestBase;
+import org.apache.http.entity.InputStreamEntity;
+import org.apache.http.util.EntityUtils;
 
 @Slf4j
 @RestController
@@ -29,18 +65,95 @@ public class IndexController {
     private final HttpUtils httpUtils;
     private final CacheUtil cacheUtil;
     private final SiteService siteService;
+    private final UpstreamProperties upstreamProperties;
+    private final SingleFlight singleFlight;
+    private final CacheRefreshService cacheRefreshService;
+    private final SiteKeywordsService keywordsService;
     @Value("${admin.path:#{T(java.util.UUID).randomUUID().toString()}}")
     private String adminPath;
 
-    private byte[] readAllBytes(InputStream inputStream) throws Exception {
-        ByteArrayOutputStream buffer = new ByteArrayOutputStream();
-        int nRead;
-        byte[] data = new byte[4096];
-        while ((nRead = inputStream.read(data, 0, data.length)) != -1) {
-            buffer.write(data, 0, nRead);
+    private static final int STREAM_BUFFER_SIZE = 8192;
+    private static final Set<String> HOP_BY_HOP_HEADERS = Set.of("host", "content-length", "transfer-encoding",
+            "connection", "keep-alive", "proxy-connection", "te", "trailer", "upgrade",
+            "proxy-authorization", "proxy-authenticate");
+    private static final String HTML_CONTENT_TYPE = "text/html;charset=UTF-8";
+    // 超过该大小的缓存文件不读入内存，连接器支持时交给Tomcat sendfile发送，与DefaultServlet的默认阈值一致
+    private static final long SENDFILE_MIN_SIZE = 48 * 1024;
+    private static final String SENDFILE_SUPPORT = "org.apache.tomcat.sendfile.support";
+    private static final String SENDFILE_FILENAME = "org.apache.tomcat.sendfile.filename";
+    private static final String SENDFILE_START = "org.apache.tomcat.sendfile.start";
+    private static final String SENDFILE_END = "org.apache.tomcat.sendfile.end";
+
+    /**
+     * 静态资源未命中：同一资源只回源一次，由后台下载写入缓存，本请求从正在写入的缓存读取；
+     * 下载已结束（或内容较小未写入临时文件）时直接输出缓存，后台线程已满时直接回源转发
+     */
+    private void fetchAndCache(String url, String cacheKey, Site site, String contentType,
+                               HttpServletRequest request, HttpServletResponse response) throws Exception {
+        CacheFill fill;
+        try {
+            fill = cacheRefreshService.fill(url, cacheKey, site);
+        } catch (RejectedExecutionException e) {
+            log.debug("回源线程已满，直接回源: {}", cacheKey);
+            streamUncached(url, site, contentType, response);
+            return;
+        }
+        CacheMeta meta = fill.awaitStart(proxyConfig.getSingleFlightTimeout());
+        try (InputStream is = fill.openStream()) {
+            if (is != null) {
+                replayHeaders(meta, response);
+                response.setContentType(meta.resolveContentType(contentType));
+                long contentLength = fill.getContentLength();
+                if (contentLength >= 0) {
+                    response.setContentLengthLong(contentLength);
+                }
+                OutputStream os = response.getOutputStream();
+                byte[] buffer = new byte[STREAM_BUFFER_SIZE];
+                int length;
+                while ((length = is.read(buffer)) != -1) {
+                    os.write(buffer, 0, length);
+                }
+                os.flush();
+                return;
+            }
+        }
+        fill.awaitDone();
+        CacheEntry entry = cacheUtil.lookup(cacheKey, site);
+        if (entry == null || !serveCached(entry, contentType, request, response)) {
+            log.debug("回源完成但未找到缓存，直接回源: {}", cacheKey);
+            streamUncached(url, site, contentType, response);
+        }
+    }
+
+    /**
+     * 回源后直接转发给客户端，不写缓存
+     */
+    private void streamUncached(String url, Site site, String contentType, HttpServletResponse response)
+            throws Exception {
+        try (CloseableHttpResponse upstream = httpUtils.execute(new HttpGet(url), site)) {
+            int statusCode = upstream.getStatusLine().getStatusCode();
+            HttpEntity entity = upstream.getEntity();
+            if (statusCode != HttpServletResponse.SC_OK || entity == null) {
+                EntityUtils.consume(entity);
+                throw new IOException("源站响应异常: " + statusCode + " " + url);
+            }
+            CacheMeta meta = CacheMeta.fromResponse(upstream, site);
+            replayHeaders(meta, response);
+            response.setContentType(meta.resolveContentType(contentType));
+            long contentLength = entity.getContentLength();
+            if (contentLength >= 0) {
+                response.setContentLengthLong(contentLength);
+            }
+            try (InputStream is = entity.getContent()) {
+                OutputStream os = response.getOutputStream();
+                byte[] buffer = new byte[STREAM_BUFFER_SIZE];
+                int length;
+                while ((length = is.read(buffer)) != -1) {
+                    os.write(buffer, 0, length);
+                }
+                os.flush();
+            }
         }
-        buffer.flush();
-        return buffer.toByteArray();
     }
 
     @GetMapping("/**")
@@ -59,91 +172,511 @@ public class IndexController {
             if (path.startsWith(adminPath)) {
                 return null;
             }
-            String fullUrl = host + path;
             // 判断是否为静态资源
             if (isStaticResource(path)) {
-                handleStaticResource(host, path, site, response);
+                handleStaticResource(host, path, site, request, response);
                 return null;
             }
             // 特殊处理favicon.ico
             if (path.equals("/favicon.ico")) {
-                handleFaviconRequest(site, response);
+                handleFaviconRequest(site, request, response);
                 return null;
             }
             // 处理非静态资源
-            if (site != null && site.getIsCache() == 1) {
-                String cachedContent = cacheUtil.get(fullUrl, site);
-                if (cachedContent != null) {
-                    log.info("从缓存获取内容: {}", fullUrl);
-                    return cachedContent;
+            String cacheKey = host + path;
+            String targetUrl = site.getUrl() + path;
+            CacheEntry entry = null;
+            CacheMeta freshness = null;
+            if (site.getIsCache() == 1) {
+                entry = cacheUtil.lookup(cacheKey, site);
+                if (entry != null) {
+                    freshness = cacheUtil.readFreshness(cacheKey, site, entry);
+                    if (isServable(freshness, targetUrl, cacheKey, site, true)
+                            && servePage(entry, site, request, response)) {
+                        log.info("从缓存获取内容: {}", cacheKey);
+                        return null;
+                    }
                 }
             }
-            fullUrl = site.getUrl() + path;
-            log.info("代理请求: {} -> {}", path, fullUrl);
-            String responseContent = httpUtils.get(fullUrl);
-            if (site != null && site.getIsCache() == 1) {
-                cacheUtil.put(host + path, responseContent, site);
-                log.info("内容已缓存: {}", fullUrl);
+            log.info("代理请求: {} -> {}", path, targetUrl);
+            if (proxyConfig.isAsyncEnabled()) {
+                proxyGetAsync(targetUrl, cacheKey, site, entry, freshness, request, response);
+                return null;
+            }
+            try {
+                // 同一页面并发未命中时只回源一次
+                FetchedPage page = singleFlight.execute(cacheKey,
+                        () -> cacheRefreshService.fetchHtml(targetUrl, cacheKey, site),
+                        proxyConfig.getSingleFlightTimeout());
+                writeHtml(response, page, site, path);
+                return null;
+            } catch (Exception e) {
+                if (isStaleIfError(freshness, site)
+                        && servePage(entry, site, request, response)) {
+                    log.warn("源站异常，返回过期缓存: {} - {}", targetUrl, e.getMessage());
+                    return null;
+                }
+                throw e;
             }
-            return responseContent;
         } catch (Exception e) {
             log.error("代理请求失败", e);
             return "Error: " + e.getMessage();
         }
     }
 
-    private void handleFaviconRequest(Site site, HttpServletResponse response) throws Exception {
-        String faviconPath = "/favicon.ico";
-        String cacheKey = site.getName() + faviconPath;
-        // 先尝试从缓存获取
-        byte[] cachedFavicon = cacheUtil.getBytes(cacheKey, site);
-        if (cachedFavicon != null) {
-            response.setContentType("image/x-icon");
-            response.getOutputStream().write(cachedFavicon);
+    /**
+     * 异步代理：启动AsyncContext后立即释放请求线程，由非阻塞客户端回源并写缓存（与同步路径相同），完成后在回调中写回
+     */
+    private void proxyGetAsync(String fullUrl, String cacheKey, Site site, CacheEntry staleEntry,
+                               CacheMeta freshness, HttpServletRequest request, HttpServletResponse response) {
+        AsyncContext asyncContext = request.startAsync();
+        asyncContext.setTimeout(upstreamProperties.getSocketTimeout() + upstreamProperties.getConnectTimeout());
+        AtomicBoolean finished = new AtomicBoolean(false);
+        asyncContext.addListener(new AsyncListener() {
+            @Override
+            public void onTimeout(AsyncEvent event) {
+                if (finished.compareAndSet(false, true)) {
+                    log.warn("异步代理请求超时: {}", fullUrl);
+                    response.setStatus(HttpServletResponse.SC_GATEWAY_TIMEOUT);
+                    asyncContext.complete();
+                }
+            }
+
+            @Override
+            public void onComplete(AsyncEvent event) {
+            }
+
+            @Override
+            public void onError(AsyncEvent event) {
+                finished.set(true);
+            }
+
+            @Override
+            public void onStartAsync(AsyncEvent event) {
+            }
+        });
+        singleFlight.<FetchedPage>submit(cacheKey,
+                () -> cacheRefreshService.fetchHtmlAsync(fullUrl, cacheKey, site)).whenComplete((page, ex) -> {
+            if (!finished.compareAndSet(false, true)) {
+                return;
+            }
+            try {
+                if (ex != null && isSaturated(ex)) {
+                    // 源站连接已满：有旧缓存时返回旧缓存，否则返回503，不排队等待
+                    if (staleEntry != null && servePage(staleEntry, site, request, response)) {
+                        log.warn("源站连接已满，返回过期缓存: {}", fullUrl);
+                    } else {
+                        log.warn("源站连接已满，返回503: {}", fullUrl);
+                        response.setStatus(HttpServletResponse.SC_SERVICE_UNAVAILABLE);
+                    }
+                    return;
+                }
+                if (ex != null && isStaleIfError(freshness, site)
+                        && servePage(staleEntry, site, request, response)) {
+                    log.warn("源站异常，返回过期缓存: {} - {}", fullUrl, ex.getMessage());
+                    return;
+                }
+                if (ex != null) {
+                    log.error("代理请求失败", ex);
+                    writeHtml(response, "Error: " + ex.getMessage());
+                    return;
+                }
+                writeHtml(response, page, site, request.getRequestURI());
+            } catch (Exception e) {
+                log.error("异步写回响应失败: {}", fullUrl, e);
+            } finally {
+                asyncContext.complete();
+            }
+        });
+    }
+
+    private void writeHtml(HttpServletResponse response, String content) throws IOException {
+        writeBody(response, HTML_CONTENT_TYPE, content.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * 输出页面，Content-Type中的字符集与字节一致，源站响应头与命中缓存时一样回放。
+     * 站点有启用的关键字规则时按页面字符集解码，边替换边编码输出；否则直接输出源站原始字节
+     */
+    private void writeHtml(HttpServletResponse response, FetchedPage page, Site site, String path)
+            throws IOException {
+        replayHeaders(page.getMeta(), response);
+        KeywordMatcher matcher = keywordsService.getMatcher(site.getId(), path);
+        if (matcher.isEmpty() || !page.isHtml()) {
+            writeBody(response, page.contentType(), page.getBody());
             return;
         }
-        // 缓存未命中，从源站获取
+        response.setContentType(page.contentType());
+        Writer writer = new OutputStreamWriter(response.getOutputStream(), page.getCharset());
+        matcher.replace(new InputStreamReader(new ByteArrayInputStream(page.getBody()), page.getCharset()), writer);
+        writer.flush();
+        response.flushBuffer();
+    }
+
+    /**
+     * 输出缓存的页面。需要关键字替换时优先输出缓存的替换结果，结果不存在、比页面旧或规则版本不一致时
+     * 替换后输出并保存新结果；替换结果和原页面一样支持gzip副本、304和Range
+     */
+    private boolean servePage(CacheEntry entry, Site site, HttpServletRequest request,
+                              HttpServletResponse response) throws IOException {
+        CacheMeta meta = cacheUtil.readMeta(entry);
+        KeywordMatcher matcher = keywordsService.getMatcher(site.getId(), request.getRequestURI());
+        if (matcher.isEmpty() || (meta != null && !meta.isHtml())) {
+            return serveCached(entry, meta, HTML_CONTENT_TYPE, request, response);
+        }
+        CacheEntry rewritten = cacheUtil.lookupRewritten(entry);
+        if (rewritten != null) {
+            CacheMeta rewrittenMeta = cacheUtil.readMeta(rewritten);
+            // 响应头以原页面的元数据为准，304校验后原页面的头可能已更新
+            if (rewrittenMeta != null && rewrittenMeta.getRuleVersion() == matcher.getVersion()
+                    && serveCached(rewritten, meta, HTML_CONTENT_TYPE, request, response)) {
+                return true;
+            }
+        }
+        byte[] content = cacheUtil.getBytes(entry);
+        if (content == null) {
+            return false;
+        }
+        Charset charset = FetchedPage.detectCharset(content, meta != null ? meta.getCharset() : null);
+        byte[] body = matcher.replace(content, charset);
+        CacheMeta rewrittenMeta = meta != null ? meta.copy() : new CacheMeta();
+        rewrittenMeta.setCharset(charset.name());
+        rewrittenMeta.setRuleVersion(matcher.getVersion());
+        cacheUtil.putRewritten(entry, body, rewrittenMeta);
+        replayHeaders(meta, response);
+        writeBody(response, rewrittenMeta.resolveContentType(HTML_CONTENT_TYPE), body);
+        return true;
+    }
+
+    private void writeBody(HttpServletResponse response, String contentType, byte[] body) throws IOException {
+        response.setContentType(contentType);
+        response.setContentLength(body.length);
+        response.getOutputStream().write(body);
+        response.flushBuffer();
+    }
+
+    private void handleFaviconRequest(Site site, HttpServletRequest request, HttpServletResponse response)
+            throws Exception {
+        String faviconPath = "/favicon.ico";
+        String cacheKey = site.getName() + faviconPath;
+        // 先尝试从缓存获取，缓存未命中时从源站获取
         String faviconUrl = site.getUrl() + faviconPath;
         try {
-            URL url = new URL(faviconUrl);
-            try (InputStream is = url.openStream()) {
-                byte[] faviconBytes = readAllBytes(is);
-                cacheUtil.putBytes(cacheKey, faviconBytes, site);
-                response.setContentType("image/x-icon");
-                response.getOutputStream().write(faviconBytes);
-            }
+            serveResource(faviconUrl, cacheKey, site, "image/x-icon", request, response);
         } catch (Exception e) {
             log.warn("获取favicon失败: {}", faviconUrl, e);
             response.setStatus(HttpServletResponse.SC_NOT_FOUND);
         }
     }
 
-    private void handleStaticResource(String host, String path, Site site, HttpServletResponse response)
-            throws Exception {
+    private void handleStaticResource(String host, String path, Site site, HttpServletRequest request,
+                                      HttpServletResponse response) throws Exception {
         String cacheKey = host + path;
         String fullUrl = site.getUrl() + path;
-        // 先尝试从缓存获取
-        byte[] cachedContent = cacheUtil.getBytes(cacheKey, site);
-        if (cachedContent != null) {
-            response.setContentType(getContentType(path));
-            response.getOutputStream().write(cachedContent);
-            return;
-        }
-        // 缓存未命中，从源站获取并缓存
+        // 先尝试从缓存获取，缓存未命中时从源站获取并缓存
         try {
-            URL url = new URL(fullUrl);
-            try (InputStream is = url.openStream()) {
-                byte[] resourceBytes = readAllBytes(is);
-                cacheUtil.putBytes(cacheKey, resourceBytes, site);
-                response.setContentType(getContentType(path));
-                response.getOutputStream().write(resourceBytes);
-            }
+            serveResource(fullUrl, cacheKey, site, getContentType(path), request, response);
         } catch (Exception e) {
             log.error("获取静态资源失败: {}", fullUrl, e);
             response.setStatus(HttpServletResponse.SC_NOT_FOUND);
         }
     }
 
+    private void serveResource(String url, String cacheKey, Site site, String contentType,
+                               HttpServletRequest request, HttpServletResponse response) throws Exception {
+        CacheEntry entry = cacheUtil.lookup(cacheKey, site);
+        CacheMeta freshness = null;
+        if (entry != null) {
+            freshness = cacheUtil.readFreshness(cacheKey, site, entry);
+            if (isServable(freshness, url, cacheKey, site, false)
+                    && serveCached(entry, contentType, request, response)) {
+                return;
+            }
+        }
+        try {
+            fetchAndCache(url, cacheKey, site, contentType, request, response);
+        } catch (Exception e) {
+            if (isStaleIfError(freshness, site) && !response.isCommitted()) {
+                log.warn("源站异常，返回过期缓存: {} - {}", url, e.getMessage());
+                if (serveCached(entry, contentType, request, response)) {
+                    return;
+                }
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * 缓存未过期，或已过期但仍在stale-while-revalidate窗口内（同时触发后台刷新）时可直接返回
+     */
+    private boolean isServable(CacheMeta freshness, String url, String cacheKey, Site site, boolean html) {
+        long now = System.currentTimeMillis();
+        if (freshness == null || freshness.isFresh(now)) {
+            return true;
+        }
+        if (freshness.isUsableStale(now, site.getStaleWhileRevalidate())) {
+            cacheRefreshService.refreshInBackground(url, cacheKey, site, html);
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * 非阻塞客户端连接数达到上限或回调线程池已满
+     */
+    private boolean isSaturated(Throwable ex) {
+        Throwable cause = ex instanceof CompletionException && ex.getCause() != null ? ex.getCause() : ex;
+        return cause instanceof RejectedExecutionException;
+    }
+
+    /**
+     * 源站异常时过期缓存是否仍在stale-if-error窗口内
+     */
+    private boolean isStaleIfError(CacheMeta freshness, Site site) {
+        return freshness != null && freshness.isUsableStale(System.currentTimeMillis(), site.getStaleIfError());
+    }
+
+    /**
+     * 输出缓存内容，文本类型在客户端支持时直接输出预压缩的gzip副本，
+     * If-None-Match/If-Modified-Since匹配时直接返回304，带Range时只输出请求的区间
+     */
+    private boolean serveCached(CacheEntry entry, String defaultContentType, HttpServletRequest request,
+                                HttpServletResponse response) throws IOException {
+        return serveCached(entry, cacheUtil.readMeta(entry), defaultContentType, request, response);
+    }
+
+    /**
+     * 按meta输出缓存内容，meta可以来自其他条目（如替换结果使用原页面的元数据）
+     */
+    private boolean serveCached(CacheEntry entry, CacheMeta meta, String defaultContentType,
+                                HttpServletRequest request, HttpServletResponse response) throws IOException {
+        // 有源站元数据时使用源站的内容类型并回放响应头，304响应同样需要带上缓存相关的头
+        String contentType = meta != null ? meta.resolveContentType(defaultContentType) : defaultContentType;
+        replayHeaders(meta, response);
+        CacheEntry body = entry;
+        String rangeHeader = request.getHeader(HttpHeaders.RANGE);
+        if (isCompressibleType(contentType)) {
+            response.setHeader("Vary", "Accept-Encoding");
+            // 区间请求始终针对原始内容
+            if (rangeHeader == null && acceptsGzip(request)) {
+                CacheEntry gzip = cacheUtil.lookupGzip(entry);
+                if (gzip != null) {
+                    body = gzip;
+                }
+            }
+        }
+        if (new ServletWebRequest(request, response).checkNotModified(body.getEtag(), body.getLastModified())) {
+            return true;
+        }
+        response.setHeader(HttpHeaders.ACCEPT_RANGES, "bytes");
+        if (rangeHeader != null && body.getEncoding() == null && matchesIfRange(request, body)) {
+            List<long[]> ranges = parseRanges(rangeHeader, body.getSize());
+            if (ranges != null) {
+                serveRanges(body, contentType, ranges, request, response);
+                return true;
+            }
+        }
+        if (body.getSize() >= SENDFILE_MIN_SIZE && !cacheUtil.fitsInMemory(body)) {
+            // 放不进内存层的大文件不读入内存，直接从文件发送
+            response.setContentType(contentType);
+            if (body.getEncoding() != null) {
+                response.setHeader("Content-Encoding", body.getEncoding());
+            }
+            writeRegion(body, 0, body.getSize(), request, response);
+            return true;
+        }
+        // 内存层命中时直接从内存（堆内或堆外）写出
+        MemoryCache.Item item = cacheUtil.retainInMemory(body);
+        byte[] content = null;
+        if (item == null) {
+            content = cacheUtil.getBytes(body);
+            if (content == null) {
+                return false;
+            }
+        }
+        try {
+            response.setContentType(contentType);
+            if (body.getEncoding() != null) {
+                response.setHeader("Content-Encoding", body.getEncoding());
+            }
+            if (item != null) {
+                response.setContentLength(item.length());
+                item.writeTo(response.getOutputStream());
+            } else {
+                response.setContentLength(content.length);
+                response.getOutputStream().write(content);
+            }
+        } finally {
+            if (item != null) {
+                item.release();
+            }
+        }
+        // 提交响应，避免返回值处理时再改写响应头
+        response.flushBuffer();
+        return true;
+    }
+
+    private void replayHeaders(CacheMeta meta, HttpServletResponse response) {
+        if (meta != null) {
+            meta.getHeaders().forEach(response::setHeader);
+        }
+    }
+
+    /**
+     * 没有If-Range，或If-Range中的ETag/时间与缓存一致时才按区间返回，否则返回完整内容
+     */
+    private boolean matchesIfRange(HttpServletRequest request, CacheEntry entry) {
+        String ifRange = request.getHeader(HttpHeaders.IF_RANGE);
+        if (ifRange == null) {
+            return true;
+        }
+        if (ifRange.startsWith("\"") || ifRange.startsWith("W/")) {
+            return ifRange.equals(entry.getEtag());
+        }
+        try {
+            return request.getDateHeader(HttpHeaders.IF_RANGE) / 1000 == entry.getLastModified() / 1000;
+        } catch (IllegalArgumentException e) {
+            return false;
+        }
+    }
+
+    /**
+     * 解析Range头，返回[start, end]闭区间列表；无法解析或区间总长度超过文件大小时返回null（按完整内容处理），
+     * 没有可满足的区间时返回空列表
+     */
+    private List<long[]> parseRanges(String rangeHeader, long size) {
+        List<HttpRange> httpRanges;
+        try {
+            httpRanges = HttpRange.parseRanges(rangeHeader);
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+        if (httpRanges.isEmpty()) {
+            return null;
+        }
+        List<long[]> ranges = new ArrayList<>(httpRanges.size());
+        long total = 0;
+        for (HttpRange httpRange : httpRanges) {
+            long start;
+            long end;
+            try {
+                start = httpRange.getRangeStart(size);
+                end = httpRange.getRangeEnd(size);
+            } catch (IllegalArgumentException e) {
+                // 起始位置超出文件大小，该区间不可满足
+                continue;
+            }
+            if (start > end) {
+                continue;
+            }
+            ranges.add(new long[]{start, end});
+            total += end - start + 1;
+        }
+        // 重叠区间放大响应体积，直接返回完整内容
+        return total > size ? null : ranges;
+    }
+
+    /**
+     * 单区间返回206和Content-Range，Tomcat支持sendfile时由连接器直接从文件发送；
+     * 多区间按multipart/byteranges逐段输出
+     */
+    private void serveRanges(CacheEntry entry, String contentType, List<long[]> ranges,
+                             HttpServletRequest request, HttpServletResponse response) throws IOException {
+        long size = entry.getSize();
+        if (ranges.isEmpty()) {
+            response.setStatus(HttpServletResponse.SC_REQUESTED_RANGE_NOT_SATISFIABLE);
+            response.setHeader(HttpHeaders.CONTENT_RANGE, "bytes */" + size);
+            return;
+        }
+        response.setStatus(HttpServletResponse.SC_PARTIAL_CONTENT);
+        if (ranges.size() == 1) {
+            long start = ranges.get(0)[0];
+            long end = ranges.get(0)[1];
+            response.setContentType(contentType);
+            response.setHeader(HttpHeaders.CONTENT_RANGE, "bytes " + start + "-" + end + "/" + size);
+            writeRegion(entry, start, end - start + 1, request, response);
+            return;
+        }
+        String boundary = MimeTypeUtils.generateMultipartBoundaryString();
+        List<byte[]> partHeaders = new ArrayList<>(ranges.size());
+        long contentLength = 0;
+        for (long[] range : ranges) {
+            byte[] partHeader = ("\r\n--" + boundary + "\r\n"
+                    + HttpHeaders.CONTENT_TYPE + ": " + contentType + "\r\n"
+                    + HttpHeaders.CONTENT_RANGE + ": bytes " + range[0] + "-" + range[1] + "/" + size + "\r\n\r\n")
+                    .getBytes(StandardCharsets.ISO_8859_1);
+            partHeaders.add(partHeader);
+            contentLength += partHeader.length + range[1] - range[0] + 1;
+        }
+        byte[] closing = ("\r\n--" + boundary + "--\r\n").getBytes(StandardCharsets.ISO_8859_1);
+        contentLength += closing.length;
+        response.setContentType("multipart/byteranges; boundary=" + boundary);
+        response.setContentLengthLong(contentLength);
+        OutputStream os = response.getOutputStream();
+        for (int i = 0; i < ranges.size(); i++) {
+            long[] range = ranges.get(i);
+            os.write(partHeaders.get(i));
+            cacheUtil.transfer(entry, range[0], range[1] - range[0] + 1, os);
+        }
+        os.write(closing);
+        response.flushBuffer();
+    }
+
+    /**
+     * 输出缓存文件的一个区间：连接器支持时交给Tomcat sendfile，由内核直接从文件写到socket，
+     * 否则通过FileChannel.transferTo写出，都不在堆上保留文件内容
+     */
+    private void writeRegion(CacheEntry entry, long start, long length, HttpServletRequest request,
+                             HttpServletResponse response) throws IOException {
+        response.setContentLengthLong(length);
+        if (length >= SENDFILE_MIN_SIZE && Boolean.TRUE.equals(request.getAttribute(SENDFILE_SUPPORT))
+                && !cacheUtil.isPacked(entry)) {
+            request.setAttribute(SENDFILE_FILENAME, entry.getPath().toAbsolutePath().toString());
+            request.setAttribute(SENDFILE_START, start);
+            request.setAttribute(SENDFILE_END, start + length);
+            return;
+        }
+        cacheUtil.transfer(entry, start, length, response.getOutputStream());
+        response.flushBuffer();
+    }
+
+    private boolean isCompressibleType(String contentType) {
+        return contentType.startsWith("text/")
+                || contentType.startsWith("application/javascript")
+                || contentType.startsWith("application/json")
+                || contentType.startsWith("application/xml")
+                || contentType.startsWith("image/svg+xml");
+    }
+
+    /**
+     * Accept-Encoding中包含gzip（或*）且q值不为0
+     */
+    private boolean acceptsGzip(HttpServletRequest request) {
+        String acceptEncoding = request.getHeader("Accept-Encoding");
+        if (acceptEncoding == null) {
+            return false;
+        }
+        for (String token : acceptEncoding.split(",")) {
+            String[] parts = token.trim().split(";");
+            String coding = parts[0].trim();
+            if (!"gzip".equalsIgnoreCase(coding) && !"*".equals(coding)) {
+                continue;
+            }
+            for (int i = 1; i < parts.length; i++) {
+                String param = parts[i].trim();
+                if (param.startsWith("q=")) {
+                    try {
+                        return Double.parseDouble(param.substring(2)) > 0;
+                    } catch (NumberFormatException e) {
+                        return false;
+                    }
+                }
+            }
+            return true;
+        }
+        return false;
+    }
+
     private String getContentType(String path) {
         String extension = path.substring(path.lastIndexOf(".")).toLowerCase();
         switch (extension) {
@@ -158,6 +691,14 @@ public class IndexController {
                 return "text/css";
             case ".js":
                 return "application/javascript";
+            case ".svg":
+                return "image/svg+xml";
+            case ".json":
+                return "application/json";
+            case ".xml":
+                return "application/xml";
+            case ".txt":
+                return "text/plain";
             case ".pdf":
                 return "application/pdf";
             case ".mp4":
@@ -180,11 +721,16 @@ public class IndexController {
                 .anyMatch(ext -> lowercasePath.endsWith(ext));
     }
 
-    @PostMapping("/**")
-    public void proxyPost(HttpServletRequest request, HttpServletResponse response) {
+    /**
+     * 带请求体的请求直接转发：请求体边读边写到连接池中的源站连接，长度未知时按chunked发送，
+     * 响应体同样按固定大小的缓冲区流式写回，不在内存中保留完整内容
+     */
+    @RequestMapping(value = "/**", method = {RequestMethod.POST, RequestMethod.PUT, RequestMethod.PATCH,
+            RequestMethod.DELETE})
+    public void proxyWithBody(HttpServletRequest request, HttpServletResponse response) {
         try {
             String path = request.getRequestURI();
-            log.info("请求路径: {}", path);
+            log.info("请求路径: {} {}", request.getMethod(), path);
             String host = request.getHeader("Host");
             log.info("请求主机: {}, 路径: {}", host, path);
             Site site = siteService.getSiteByUrl(host);
@@ -201,68 +747,116 @@ public class IndexController {
             // 构建目标URL
             String fullUrl = site.getUrl() + path;
             log.info("代理请求: {} -> {}", path, fullUrl);
-            // 读取请求体
-            String requestBody = null;
-            try (BufferedReader reader = request.getReader()) {
-                StringBuilder builder = new StringBuilder();
-                String line;
-                while ((line = reader.readLine()) != null) {
-                    builder.append(line);
-                }
-                requestBody = builder.toString();
-            }
-            // 转发请求
-            URL url = new URL(fullUrl);
-            HttpURLConnection conn = (HttpURLConnection) url.openConnection();
-            conn.setRequestMethod("POST");
+            ProxiedRequest upstreamRequest = new ProxiedRequest(request.getMethod(), fullUrl);
             // 复制请求头
+            Set<String> requestConnectionTokens = connectionTokens(request.getHeaders("Connection"));
             Enumeration<String> headerNames = request.getHeaderNames();
             while (headerNames.hasMoreElements()) {
                 String headerName = headerNames.nextElement();
-                String headerValue = request.getHeader(headerName);
-                // 跳过某些特殊的请求头
-                if (!"host".equalsIgnoreCase(headerName) && 
-                    !"content-length".equalsIgnoreCase(headerName)) {
-                    conn.setRequestProperty(headerName, headerValue);
+                // 跳过某些特殊的请求头，连接相关的由连接池管理；请求体已由Tomcat向客户端确认，不再等待源站的100-continue
+                if (!isHopByHopHeader(headerName, requestConnectionTokens) && !"accept-encoding".equalsIgnoreCase(headerName)
+                        && !"expect".equalsIgnoreCase(headerName)) {
+                    upstreamRequest.setHeader(headerName, request.getHeader(headerName));
                 }
             }
-            // 设置通用请求头
-            conn.setRequestProperty("Content-Type", request.getContentType());
-            conn.setRequestProperty("Accept", "*/*");
-            conn.setConnectTimeout(10000);
-            conn.setReadTimeout(30000);
-            // 写入请求体
-            if (requestBody != null && !requestBody.isEmpty()) {
-                conn.setDoOutput(true);
-                try (OutputStream os = conn.getOutputStream()) {
-                    byte[] input = requestBody.getBytes("UTF-8");
-                    os.write(input, 0, input.length);
-                }
+            upstreamRequest.setHeader("Accept", "*/*");
+            // 请求体直接从输入流转发，没有Content-Length时按chunked发送
+            long contentLength = request.getContentLengthLong();
+            if (contentLength > 0 || (contentLength < 0 && request.getHeader("Transfer-Encoding") != null)) {
+                InputStreamEntity body = new InputStreamEntity(request.getInputStream(), contentLength);
+                body.setChunked(contentLength < 0);
+                upstreamRequest.setEntity(body);
             }
             // 获取响应
-            int responseCode = conn.getResponseCode();
-            response.setStatus(responseCode);
-            // 复制响应头
-            conn.getHeaderFields().forEach((key, values) -> {
-                if (key != null) {  // 跳过状态行
-                    values.forEach(value -> response.addHeader(key, value));
+            try (CloseableHttpResponse upstream = httpUtils.execute(upstreamRequest, site)) {
+                int responseCode = upstream.getStatusLine().getStatusCode();
+                response.setStatus(responseCode);
+                // 复制响应头
+                Set<String> responseConnectionTokens = connectionTokens(upstream.getHeaders("Connection"));
+                for (Header header : upstream.getAllHeaders()) {
+                    if (!isHopByHopHeader(header.getName(), responseConnectionTokens)) {
+                        response.addHeader(header.getName(), header.getValue());
+                    }
                 }
-            });
-            // 复制响应体
-            try (InputStream is = responseCode >= 400 ? conn.getErrorStream() : conn.getInputStream();
-                 OutputStream os = response.getOutputStream()) {
-                if (is != null) {
-                    byte[] buffer = new byte[8192];
-                    int length;
-                    while ((length = is.read(buffer)) != -1) {
-                        os.write(buffer, 0, length);
+                // 复制响应体
+                HttpEntity entity = upstream.getEntity();
+                if (entity != null) {
+                    if (entity.getContentLength() >= 0) {
+                        response.setContentLengthLong(entity.getContentLength());
+                    }
+                    try (InputStream is = entity.getContent()) {
+                        OutputStream os = response.getOutputStream();
+                        byte[] buffer = new byte[STREAM_BUFFER_SIZE];
+                        int length;
+                        while ((length = is.read(buffer)) != -1) {
+                            os.write(buffer, 0, length);
+                        }
+                        os.flush();
                     }
                 }
             }
-            conn.disconnect();
         } catch (Exception e) {
             log.error("代理请求失败", e);
-            response.setStatus(HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
+            if (!response.isCommitted()) {
+                response.setStatus(HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
+            }
+        }
+    }
+
+    /**
+     * 逐跳头只在单个连接上有效，不向上下游转发：固定的逐跳头（RFC 7230 6.1），
+     * 以及Connection头中列出的其他头；Host和Content-Length由连接池按目标重新生成
+     */
+    private boolean isHopByHopHeader(String headerName, Set<String> connectionTokens) {
+        String name = headerName.toLowerCase(Locale.ROOT);
+        return HOP_BY_HOP_HEADERS.contains(name) || connectionTokens.contains(name);
+    }
+
+    /**
+     * Connection头中列出的头名称（小写），close、keep-alive等选项也一并包含，不影响判断
+     */
+    private static Set<String> connectionTokens(Enumeration<String> connectionHeaders) {
+        Set<String> tokens = new HashSet<>();
+        while (connectionHeaders != null && connectionHeaders.hasMoreElements()) {
+            addConnectionTokens(tokens, connectionHeaders.nextElement());
+        }
+        return tokens;
+    }
+
+    private static Set<String> connectionTokens(Header[] connectionHeaders) {
+        Set<String> tokens = new HashSet<>();
+        for (Header header : connectionHeaders) {
+            addConnectionTokens(tokens, header.getValue());
+        }
+        return tokens;
+    }
+
+    private static void addConnectionTokens(Set<String> tokens, String value) {
+        if (value == null) {
+            return;
+        }
+        for (String token : value.split(",")) {
+            String name = token.trim().toLowerCase(Locale.ROOT);
+            if (!name.isEmpty()) {
+                tokens.add(name);
+            }
+        }
+    }
+
+    /**
+     * 按原请求方法转发的请求，DELETE等方法同样可以携带请求体
+     */
+    private static class ProxiedRequest extends HttpEntityEnclosingRequestBase {
+        private final String method;
+
+        private ProxiedRequest(String method, String uri) {
+            this.method = method;
+            setURI(URI.create(uri));
+        }
+
+        @Override
+        public String getMethod() {
+            return method;
         }
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,80 @@
+package com.site.controller;
+
+import com.site.entity.Result;
+import com.site.service.CacheRefreshService;
+import com.site.task.CacheEvictionTask;
+import com.site.util.AsyncHttpUtils;
+import com.site.util.CacheIndex;
+import com.site.util.CacheWriter;
+import com.site.util.HttpUtils;
+import com.site.util.MemoryCache;
+import com.site.util.PackStore;
+import com.site.util.SingleFlight;
+import lombok.RequiredArgsConstructor;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RestController;
+
+/**
+ * 代理运行状态监控接口
+ */
+@RestController
+@RequestMapping("/${admin.path}/monitor")
+@RequiredArgsConstructor
+public class ProxyMonitorApi {
+
+    private final HttpUtils httpUtils;
+    private final AsyncHttpUtils asyncHttpUtils;
+    private final SingleFlight singleFlight;
+    private final CacheRefreshService cacheRefreshService;
+    private final MemoryCache memoryCache;
+    private final CacheIndex cacheIndex;
+    private final CacheWriter cacheWriter;
+    private final CacheEvictionTask cacheEvictionTask;
+    private final PackStore packStore;
+
+    @GetMapping("/upstream")
+    public Result upstreamStats() {
+        return Result.success(httpUtils.getPoolStats());
+    }
+
+    @GetMapping("/upstream-async")
+    public Result asyncUpstreamStats() {
+        return Result.success(asyncHttpUtils.getStats());
+    }
+
+    @GetMapping("/refresh")
+    public Result refreshStats() {
+        return Result.success(cacheRefreshService.getStats());
+    }
+
+    @GetMapping("/single-flight")
+    public Result singleFlightStats() {
+        return Result.success(singleFlight.getStats());
+    }
+
+    @GetMapping("/memory-cache")
+    public Result memoryCacheStats() {
+        return Result.success(memoryCache.getStats());
+    }
+
+    @GetMapping("/cache-index")
+    public Result cacheIndexStats() {
+        return Result.success(cacheIndex.getStats());
+    }
+
+    @GetMapping("/cache-writer")
+    public Result cacheWriterStats() {
+        return Result.success(cacheWriter.getStats());
+    }
+
+    @GetMapping("/cache-usage")
+    public Result cacheUsageStats() {
+        return Result.success(cacheEvictionTask.getStats());
+    }
+
+    @GetMapping("/cache-pack")
+    public Result cachePackStats() {
+        return Result.success(packStore.getStats());
+    }
+}
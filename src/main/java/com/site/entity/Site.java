@@ -55,4 +55,33 @@ public class Site {
      * 最后生成时间
      */
     private LocalDateTime lastGenerate;
+    /**
+     * 源站未通过Cache-Control/Expires给出有效期时的默认缓存有效期（秒），为空或0表示永不过期
+     */
+    private Integer cacheTtl;
+    /**
+     * 源站未给出有效期时页面的默认缓存有效期（秒），为空或0时使用cacheTtl
+     */
+    private Integer htmlCacheTtl;
+    /**
+     * 有效期下限（秒），源站给出的有效期更短时使用该值，为空或0表示不限制
+     */
+    private Integer cacheMinTtl;
+    /**
+     * 有效期上限（秒），对源站给出的有效期和永不过期的条目都生效，为空或0表示不限制
+     */
+    private Integer cacheMaxTtl;
+    /**
+     * 1表示遵循源站的Cache-Control: no-cache/private，这类页面每次都回源；
+     * 为空或0时忽略这两个指令，按站点的默认有效期缓存（与升级前一致）
+     */
+    private Integer honorNoCache;
+    /**
+     * 过期后仍可直接返回旧缓存并在后台刷新的时间窗口（秒）
+     */
+    private Integer staleWhileRevalidate;
+    /**
+     * 源站异常或超时时仍可返回过期缓存的时间窗口（秒）
+     */
+    private Integer staleIfError;
 }
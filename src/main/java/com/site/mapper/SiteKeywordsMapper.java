@@ -9,6 +9,9 @@ public interface SiteKeywordsMapper {
     
     @Select("SELECT * FROM site_keywords WHERE site_id = #{siteId}")
     List<SiteTdk> findBySiteId(Long siteId);
+
+    @Select("SELECT * FROM site_keywords WHERE id = #{id}")
+    SiteTdk findById(Long id);
     
     @Insert("INSERT INTO site_keywords (site_id, source_word, target_word, page_url, enabled) " +
             "VALUES (#{siteId}, #{sourceWord}, #{targetWord}, #{pageUrl}, #{enabled})")
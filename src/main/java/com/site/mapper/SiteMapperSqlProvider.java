@@ -33,6 +33,27 @@ public class SiteMapperSqlProvider {
             if (site.getSsl() != null) {
                 VALUES("is_ssl", "#{ssl}");
             }
+            if (site.getCacheTtl() != null) {
+                VALUES("cache_ttl", "#{cacheTtl}");
+            }
+            if (site.getStaleWhileRevalidate() != null) {
+                VALUES("stale_while_revalidate", "#{staleWhileRevalidate}");
+            }
+            if (site.getStaleIfError() != null) {
+                VALUES("stale_if_error", "#{staleIfError}");
+            }
+            if (site.getHtmlCacheTtl() != null) {
+                VALUES("html_cache_ttl", "#{htmlCacheTtl}");
+            }
+            if (site.getCacheMinTtl() != null) {
+                VALUES("cache_min_ttl", "#{cacheMinTtl}");
+            }
+            if (site.getCacheMaxTtl() != null) {
+                VALUES("cache_max_ttl", "#{cacheMaxTtl}");
+            }
+            if (site.getHonorNoCache() != null) {
+                VALUES("honor_no_cache", "#{honorNoCache}");
+            }
             VALUES("create_time", "datetime('now')");
             VALUES("update_time", "datetime('now')");
         }}.toString();
@@ -65,6 +86,27 @@ public class SiteMapperSqlProvider {
             if (site.getSsl() != null) {
                 SET("ssl = #{ssl}");
             }
+            if (site.getCacheTtl() != null) {
+                SET("cache_ttl = #{cacheTtl}");
+            }
+            if (site.getStaleWhileRevalidate() != null) {
+                SET("stale_while_revalidate = #{staleWhileRevalidate}");
+            }
+            if (site.getStaleIfError() != null) {
+                SET("stale_if_error = #{staleIfError}");
+            }
+            if (site.getHtmlCacheTtl() != null) {
+                SET("html_cache_ttl = #{htmlCacheTtl}");
+            }
+            if (site.getCacheMinTtl() != null) {
+                SET("cache_min_ttl = #{cacheMinTtl}");
+            }
+            if (site.getCacheMaxTtl() != null) {
+                SET("cache_max_ttl = #{cacheMaxTtl}");
+            }
+            if (site.getHonorNoCache() != null) {
+                SET("honor_no_cache = #{honorNoCache}");
+            }
             SET("update_time = datetime('now')");
             WHERE("id = #{id}");
         }}.toString();
@@ -75,7 +117,7 @@ public class SiteMapperSqlProvider {
 
     public String selectList(Site site){
         return new SQL() {{
-            SELECT("id, name, url, enabled, description, is_cache as isCache, sitemap, sync_source as syncSource, is_ssl as  ssl, create_time as createTime, update_time as updateTime");
+            SELECT("id, name, url, enabled, description, is_cache as isCache, sitemap, sync_source as syncSource, is_ssl as  ssl, cache_ttl as cacheTtl, stale_while_revalidate as staleWhileRevalidate, stale_if_error as staleIfError, html_cache_ttl as htmlCacheTtl, cache_min_ttl as cacheMinTtl, cache_max_ttl as cacheMaxTtl, honor_no_cache as honorNoCache, create_time as createTime, update_time as updateTime");
             FROM("site");
             if (site.getName() != null) {
                 WHERE("name = #{name}");
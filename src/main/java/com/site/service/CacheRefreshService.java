@@ -0,0 +1,234 @@
+package com.site.service;
+
+import com.site.config.ProxyConfig;
+import com.site.entity.Site;
+import com.site.util.AsyncHttpUtils;
+import com.site.util.CacheFill;
+import com.site.util.CacheMeta;
+import com.site.util.CacheUtil;
+import com.site.util.FetchedPage;
+import com.site.util.HttpUtils;
+import com.site.util.SingleFlight;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpStatus;
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.util.EntityUtils;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 缓存回源刷新：同步回源写缓存，以及过期缓存的后台刷新
+ */
+@Slf4j
+@Service
+public class CacheRefreshService {
+
+    private final HttpUtils httpUtils;
+    private final CacheUtil cacheUtil;
+    private final SingleFlight singleFlight;
+    private final ProxyConfig proxyConfig;
+    private final Executor cacheRefreshExecutor;
+    private final AsyncHttpUtils asyncHttpUtils;
+    private final Executor cacheFillExecutor;
+
+    // 正在回源写入缓存的静态资源
+    private final Map<String, CacheFill> fills = new ConcurrentHashMap<>();
+    // 正在后台刷新的缓存key
+    private final Set<String> refreshing = ConcurrentHashMap.newKeySet();
+    private final AtomicLong refreshed = new AtomicLong();
+    private final AtomicLong rejected = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+
+    public CacheRefreshService(HttpUtils httpUtils, CacheUtil cacheUtil, SingleFlight singleFlight,
+                               ProxyConfig proxyConfig,
+                               @Qualifier("cacheRefreshExecutor") Executor cacheRefreshExecutor,
+                               AsyncHttpUtils asyncHttpUtils,
+                               @Qualifier("cacheFillExecutor") Executor cacheFillExecutor) {
+        this.httpUtils = httpUtils;
+        this.cacheUtil = cacheUtil;
+        this.singleFlight = singleFlight;
+        this.proxyConfig = proxyConfig;
+        this.cacheRefreshExecutor = cacheRefreshExecutor;
+        this.asyncHttpUtils = asyncHttpUtils;
+        this.cacheFillExecutor = cacheFillExecutor;
+    }
+
+    /**
+     * 获取页面并按原始字节写入缓存，元数据记录识别出的字符集
+     */
+    public FetchedPage fetchHtml(String url, String cacheKey, Site site) throws IOException {
+        CacheMeta[] meta = new CacheMeta[1];
+        FetchedPage page = httpUtils.fetch(url, site, response -> meta[0] = CacheMeta.fromResponse(response, site));
+        storeHtml(url, cacheKey, site, page, meta[0]);
+        return page;
+    }
+
+    /**
+     * 异步代理模式使用：通过非阻塞客户端回源，等待期间不占用线程；
+     * 元数据和缓存写入与fetchHtml相同。连接数达到上限时以RejectedExecutionException失败
+     */
+    public CompletableFuture<FetchedPage> fetchHtmlAsync(String url, String cacheKey, Site site) {
+        CacheMeta[] meta = new CacheMeta[1];
+        return asyncHttpUtils.fetch(url, site, response -> meta[0] = CacheMeta.fromResponse(response, site))
+                .thenApply(page -> {
+                    storeHtml(url, cacheKey, site, page, meta[0]);
+                    return page;
+                });
+    }
+
+    private void storeHtml(String url, String cacheKey, Site site, FetchedPage page, CacheMeta meta) {
+        page.setMeta(meta);
+        if (site.getIsCache() == 1 && meta.isNoStore()) {
+            // 源站不允许保存，只转发；之前缓存的旧内容一并删除
+            cacheUtil.remove(cacheKey, site);
+            return;
+        }
+        if (site.getIsCache() == 1) {
+            cacheUtil.put(cacheKey, page.getBody(), site);
+            meta.setCharset(page.getCharset().name());
+            cacheUtil.writeMeta(cacheKey, site, meta);
+            log.info("内容已缓存: {}", url);
+        }
+    }
+
+    /**
+     * 获取资源并流式写入缓存，不经过客户端；同一资源正在回源时等待其完成
+     */
+    public void fetchResource(String url, String cacheKey, Site site) throws IOException {
+        CacheFill fill = new CacheFill();
+        CacheFill existing = fills.putIfAbsent(cacheKey, fill);
+        if (existing != null) {
+            fill = existing;
+        } else {
+            download(url, cacheKey, site, fill);
+        }
+        try {
+            fill.awaitDone();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("等待回源被中断: " + url);
+        }
+    }
+
+    /**
+     * 静态资源回源写缓存：同一资源同时只下载一次，下载在后台线程中按源站速度进行，
+     * 调用方从返回的CacheFill读取。后台线程已满时抛出RejectedExecutionException
+     */
+    public CacheFill fill(String url, String cacheKey, Site site) {
+        CacheFill fill = new CacheFill();
+        CacheFill existing = fills.putIfAbsent(cacheKey, fill);
+        if (existing != null) {
+            return existing;
+        }
+        try {
+            cacheFillExecutor.execute(() -> download(url, cacheKey, site, fill));
+        } catch (RejectedExecutionException e) {
+            fills.remove(cacheKey, fill);
+            fill.fail(e);
+            throw e;
+        }
+        return fill;
+    }
+
+    /**
+     * 下载到缓存，每写入一块就刷新到临时文件并通知读取方；结果（包括失败）记录在fill中
+     */
+    private void download(String url, String cacheKey, Site site, CacheFill fill) {
+        try (CloseableHttpResponse upstream = httpUtils.execute(new HttpGet(url), site)) {
+            int statusCode = upstream.getStatusLine().getStatusCode();
+            HttpEntity entity = upstream.getEntity();
+            if (statusCode != HttpStatus.SC_OK || entity == null) {
+                EntityUtils.consume(entity);
+                throw new IOException("源站响应异常: " + statusCode + " " + url);
+            }
+            // 记录源站校验值和响应头，供缓存任务发送条件请求和命中时回放
+            CacheMeta meta = CacheMeta.fromResponse(upstream, site);
+            // 源站不允许保存时照常写入临时文件供读取方转发，但不发布，关闭时临时文件被删除
+            boolean store = !meta.isNoStore();
+            fill.started(meta, entity.getContentLength());
+            try (InputStream is = entity.getContent();
+                 CacheUtil.Sink sink = cacheUtil.openSink(cacheKey, site)) {
+                byte[] buffer = new byte[8192];
+                long written = 0;
+                int length;
+                while ((length = is.read(buffer)) != -1) {
+                    sink.write(buffer, 0, length);
+                    sink.flush();
+                    written += length;
+                    fill.advance(sink.tempFile(), written);
+                }
+                if (store) {
+                    sink.commit();
+                }
+            }
+            if (store) {
+                cacheUtil.writeMeta(cacheKey, site, meta);
+            } else {
+                cacheUtil.remove(cacheKey, site);
+            }
+            fill.complete();
+        } catch (Throwable e) {
+            fill.fail(e);
+            log.warn("资源回源失败: {} - {}", url, e.getMessage());
+        } finally {
+            fills.remove(cacheKey, fill);
+        }
+    }
+
+    /**
+     * 后台刷新过期缓存，同一key同时只有一个刷新任务，线程池满时放弃本次刷新
+     */
+    public void refreshInBackground(String url, String cacheKey, Site site, boolean html) {
+        if (!refreshing.add(cacheKey)) {
+            return;
+        }
+        try {
+            cacheRefreshExecutor.execute(() -> {
+                try {
+                    // 与前台回源共用合并请求，避免重复回源
+                    singleFlight.execute(cacheKey, () -> {
+                        if (html) {
+                            return fetchHtml(url, cacheKey, site);
+                        }
+                        fetchResource(url, cacheKey, site);
+                        return Boolean.TRUE;
+                    }, proxyConfig.getSingleFlightTimeout());
+                    refreshed.incrementAndGet();
+                } catch (Exception e) {
+                    failed.incrementAndGet();
+                    log.warn("后台刷新缓存失败: {} - {}", url, e.getMessage());
+                } finally {
+                    refreshing.remove(cacheKey);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            refreshing.remove(cacheKey);
+            rejected.incrementAndGet();
+            log.debug("后台刷新队列已满，跳过: {}", url);
+        }
+    }
+
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("filling", fills.size());
+        stats.put("refreshing", refreshing.size());
+        stats.put("refreshed", refreshed.get());
+        stats.put("failed", failed.get());
+        stats.put("rejected", rejected.get());
+        return stats;
+    }
+}
@@ -0,0 +1,17 @@
+package com.site.service;
+
+import com.site.entity.Site;
+import lombok.Getter;
+
+/**
+ * 站点删除事件，在删除事务中发布，监听方可在提交后清理该站点的后台任务
+ */
+@Getter
+public class SiteDeletedEvent {
+
+    private final Site site;
+
+    public SiteDeletedEvent(Site site) {
+        this.site = site;
+    }
+}
@@ -2,16 +2,26 @@ package com.site.service;
 
 import com.site.entity.SiteTdk;
 import com.site.mapper.SiteKeywordsMapper;
+import com.site.util.KeywordMatcher;
+import com.site.util.KeywordRuleIndex;
 import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
+@Slf4j
 @Service
 @RequiredArgsConstructor
 public class SiteKeywordsService {
 
     private final SiteKeywordsMapper keywordsMapper;
+    // 按站点建立的规则索引，规则变化后移除，下次使用时重新加载
+    private final Map<Long, KeywordRuleIndex> ruleIndexes = new ConcurrentHashMap<>();
 
     public List<SiteTdk> getKeywordsBySiteId(Long siteId) {
         return keywordsMapper.findBySiteId(siteId);
@@ -21,14 +31,21 @@ public class SiteKeywordsService {
     public void saveKeyword(SiteTdk keyword) {
         if (keyword.getId() == null) {
             keywordsMapper.insert(keyword);
+            invalidate(keyword.getSiteId());
         } else {
+            SiteTdk existing = keywordsMapper.findById(keyword.getId());
             keywordsMapper.update(keyword);
+            invalidate(existing != null ? existing.getSiteId() : keyword.getSiteId());
         }
     }
 
     @Transactional
     public void deleteKeyword(Long id) {
+        SiteTdk existing = keywordsMapper.findById(id);
         keywordsMapper.deleteById(id);
+        if (existing != null) {
+            invalidate(existing.getSiteId());
+        }
     }
 
     @Transactional
@@ -40,16 +57,44 @@ public class SiteKeywordsService {
             keyword.setSiteId(siteId);
             keywordsMapper.insert(keyword);
         }
+        invalidate(siteId);
     }
 
-    public String replaceKeywords(String content, Long siteId) {
-        List<SiteTdk> keywords = keywordsMapper.findBySiteId(siteId);
-        String result = content;
-        for (SiteTdk keyword : keywords) {
-            if (keyword.getEnabled() == 1) {
-                result = result.replace(keyword.getSourceWord(), keyword.getTargetWord());
-            }
+    /**
+     * 页面适用的规则（全站规则和匹配该路径的页面规则）编译成的自动机，没有规则时返回KeywordMatcher.EMPTY
+     */
+    public KeywordMatcher getMatcher(Long siteId, String path) {
+        if (siteId == null) {
+            return KeywordMatcher.EMPTY;
+        }
+        return ruleIndexes.computeIfAbsent(siteId, id -> {
+            List<SiteTdk> rules = keywordsMapper.findBySiteId(id);
+            KeywordRuleIndex index = KeywordRuleIndex.build(rules);
+            log.info("站点 {} 关键字规则已加载: {} 条，其中指定页面 {} 条", id, rules.size(), index.getScopedRules());
+            return index;
+        }).matcherFor(path);
+    }
+
+    public String replaceKeywords(String content, Long siteId, String path) {
+        return getMatcher(siteId, path).replace(content);
+    }
+
+    /**
+     * 事务提交后移除站点的规则索引；与正在进行的加载互斥，提交前读到的旧规则也会被移除
+     */
+    private void invalidate(Long siteId) {
+        if (siteId == null) {
+            return;
+        }
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    ruleIndexes.remove(siteId);
+                }
+            });
+        } else {
+            ruleIndexes.remove(siteId);
         }
-        return result;
     }
-} 
\ No newline at end of file
+}
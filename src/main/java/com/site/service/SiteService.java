@@ -8,12 +8,20 @@ import com.site.mapper.SiteMapper;
 import org.springframework.cache.annotation.CacheConfig;
 import org.springframework.cache.annotation.CacheEvict;
 import org.springframework.cache.annotation.Cacheable;
+import org.springframework.context.ApplicationEventPublisher;
 import org.springframework.transaction.annotation.Transactional;
 import lombok.extern.slf4j.Slf4j;
 import java.time.LocalDateTime;
 import java.time.format.DateTimeFormatter;
 import com.site.mapper.SiteStatsMapper;
 import com.site.mapper.SiteCertificateMapper;
+import com.site.util.SiteRoutingTable;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
 
 @Service
 @RequiredArgsConstructor
@@ -25,16 +33,71 @@ public class SiteService {
     private final CertificateService certificateService;
     private final SiteStatsMapper statsMapper;
     private final SiteCertificateMapper certificateMapper;
+    private final ApplicationEventPublisher eventPublisher;
 
-    @Cacheable(key = "#host")
+    // 主机路由表，站点变化后整体重建再替换引用，读取不加锁；首次使用时加载
+    private final AtomicReference<SiteRoutingTable> routes = new AtomicReference<>();
+    // 路由表和数据库中都不存在的主机，避免随意的Host头每次都查询数据库；路由表重建时清空
+    private final Cache<String, Boolean> unknownHosts = Caffeine.newBuilder()
+            .maximumSize(10000)
+            .expireAfterWrite(60, TimeUnit.SECONDS)
+            .build();
+
+    /**
+     * 按请求的Host查找站点，匹配规则见SiteRoutingTable。
+     * 路由表未命中时查一次数据库，兼容直接修改数据库新增的站点，查到后只把该主机加入路由表，不在请求线程上整体重建
+     */
     public Site getSiteByUrl(String host) {
-        // 先尝试通过域名匹配
-        Site site = siteMapper.findByName(host);
-        if (site != null) {
+        SiteRoutingTable table = routes.get();
+        if (table == null) {
+            table = reloadRoutes();
+        }
+        Site site = table.lookup(host);
+        if (site != null || host == null || unknownHosts.getIfPresent(host) != null) {
             return site;
         }
-        // 如果找不到，再尝试通过URL匹配
-        return siteMapper.findByUrl(host);
+        // 先尝试通过域名匹配
+        site = siteMapper.findByName(host);
+        if (site == null) {
+            // 如果找不到，再尝试通过URL匹配
+            site = siteMapper.findByUrl(host);
+        }
+        if (site == null) {
+            unknownHosts.put(host, Boolean.TRUE);
+            return null;
+        }
+        // 期间路由表已被重建（站点可能已修改或删除）时不加入，以重建结果为准，下次未命中再查
+        if (routes.compareAndSet(table, table.with(host, site))) {
+            log.info("站点 {} 不在路由表中，已加入", host);
+        }
+        return site;
+    }
+
+    /**
+     * 从数据库重建路由表；串行执行，保证后发布的路由表读到的数据不早于先发布的
+     */
+    public synchronized SiteRoutingTable reloadRoutes() {
+        SiteRoutingTable table = SiteRoutingTable.build(siteMapper.selectList(new Site()));
+        routes.set(table);
+        unknownHosts.invalidateAll();
+        log.info("站点路由表已加载: {} 个站点", table.size());
+        return table;
+    }
+
+    /**
+     * 事务提交后重建路由表，重建完成前继续使用旧表
+     */
+    private void publishRoutes() {
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    reloadRoutes();
+                }
+            });
+        } else {
+            reloadRoutes();
+        }
     }
 
     @Cacheable(key = "#name")
@@ -51,6 +114,7 @@ public class SiteService {
     @Transactional
     public void updateSite(Site site) {
         siteMapper.update(site);
+        publishRoutes();
         // 如果启用了HTTPS，确保有SSL证书
         Integer ssl = site.getSsl();
         if (1 == ssl) {
@@ -70,6 +134,7 @@ public class SiteService {
     @Transactional
     public void addSite(Site site) {
         siteMapper.insert(site);
+        publishRoutes();
         // 如果启用了HTTPS，自动申请证书
         if (site.getSsl() == 1) {
             // 异步申请证书
@@ -87,9 +152,14 @@ public class SiteService {
     @CacheEvict(allEntries = true)
     @Transactional
     public void deleteSite(Long id) {
+        Site site = siteMapper.selectById(id);
         siteMapper.deleteById(id);
         statsMapper.deleteBySiteId(id);
-        certificateMapper.deleteBySiteId(id);   
+        certificateMapper.deleteBySiteId(id);
+        publishRoutes();
+        if (site != null) {
+            eventPublisher.publishEvent(new SiteDeletedEvent(site));
+        }
     }
 
     @Cacheable(key = "#id")
@@ -97,16 +167,23 @@ public class SiteService {
         return siteMapper.selectById(id);
     }
 
+    @CacheEvict(allEntries = true)
     @Transactional
     public void batchDelete(List<Long> siteIds) {
         for (Long siteId : siteIds) {
             // 删除站点相关的所有数据
+            Site site = siteMapper.selectById(siteId);
             statsMapper.deleteBySiteId(siteId);
             certificateMapper.deleteBySiteId(siteId);
             siteMapper.deleteById(siteId);
+            if (site != null) {
+                eventPublisher.publishEvent(new SiteDeletedEvent(site));
+            }
         }
+        publishRoutes();
     }
 
+    @CacheEvict(allEntries = true)
     @Transactional
     public void batchUpdateStatus(List<Long> siteIds, boolean enabled) {
         for (Long siteId : siteIds) {
@@ -117,5 +194,6 @@ public class SiteService {
                 siteMapper.update(site);
             }
         }
+        publishRoutes();
     }
 }
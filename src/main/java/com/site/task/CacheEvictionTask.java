@@ -0,0 +1,137 @@
+package com.site.task;
+
+import com.site.config.ProxyConfig;
+import com.site.util.CacheIndex;
+import com.site.util.CacheUtil;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 磁盘缓存容量淘汰：定期检查各站点和全局的占用，超过上限时按最近访问时间和访问次数
+ * 选出最冷的条目逐个删除，直到降到上限的一定比例。删除单个条目不影响其他条目的读取
+ */
+@Slf4j
+@Component
+@RequiredArgsConstructor
+public class CacheEvictionTask {
+
+    // 每次访问相当于把最近访问时间推后的时长
+    private static final long FREQUENCY_BONUS_MILLIS = 5 * 60 * 1000L;
+
+    private final CacheIndex cacheIndex;
+    private final CacheUtil cacheUtil;
+    private final ProxyConfig proxyConfig;
+    private final CacheTask cacheTask;
+
+    private final AtomicLong evictedEntries = new AtomicLong();
+    private final AtomicLong evictedBytes = new AtomicLong();
+    private volatile long lastRunAt;
+    private volatile long lastRunMillis;
+
+    @Scheduled(fixedDelayString = "${proxy.cache-evict-interval:60000}")
+    public void evict() {
+        // 索引建立前无法统计占用
+        if (!cacheIndex.isReady()) {
+            return;
+        }
+        long start = System.currentTimeMillis();
+        proxyConfig.getCacheSiteMaxBytes().forEach((siteName, maxBytes) -> {
+            String namespace = CacheUtil.namespaceOf(siteName);
+            long used = cacheIndex.getUsedBytes(namespace);
+            if (maxBytes != null && maxBytes > 0 && used > maxBytes) {
+                evictDown(namespace, used - targetOf(maxBytes));
+            }
+        });
+        long maxBytes = proxyConfig.getCacheMaxBytes();
+        long total = cacheIndex.getTotalBytes();
+        if (maxBytes > 0 && total > maxBytes) {
+            evictDown(null, total - targetOf(maxBytes));
+        }
+        // 访问次数随时间衰减，只在近期频繁访问的条目保留加成
+        cacheIndex.decayHits();
+        lastRunAt = start;
+        lastRunMillis = System.currentTimeMillis() - start;
+    }
+
+    private long targetOf(long maxBytes) {
+        return (long) (maxBytes * proxyConfig.getCacheEvictTargetRatio());
+    }
+
+    /**
+     * 在namespace（为null时为全部站点）中按淘汰优先级删除条目，直到释放bytesToFree字节
+     */
+    private void evictDown(String namespace, long bytesToFree) {
+        List<Map.Entry<Path, CacheIndex.Entry>> candidates = cacheIndex.snapshot(namespace);
+        // 先取出分数再排序，排序期间的访问不影响比较结果
+        Candidate[] ordered = new Candidate[candidates.size()];
+        for (int i = 0; i < ordered.length; i++) {
+            Map.Entry<Path, CacheIndex.Entry> item = candidates.get(i);
+            ordered[i] = new Candidate(item.getKey(), item.getValue(), item.getValue().score(FREQUENCY_BONUS_MILLIS));
+        }
+        Arrays.sort(ordered, Comparator.comparingLong(candidate -> candidate.score));
+        long freed = 0;
+        int count = 0;
+        for (Candidate candidate : ordered) {
+            if (freed >= bytesToFree) {
+                break;
+            }
+            long bytes = cacheUtil.evict(candidate.path, candidate.entry);
+            if (bytes > 0) {
+                cacheTask.forget(candidate.path);
+                freed += bytes;
+                count++;
+            }
+        }
+        evictedEntries.addAndGet(count);
+        evictedBytes.addAndGet(freed);
+        log.info("缓存容量淘汰 {}: 删除 {} 个条目, 释放 {} 字节", namespace != null ? namespace : "全局", count, freed);
+    }
+
+    /**
+     * 各站点的占用和上限
+     */
+    public Map<String, Object> getStats() {
+        Map<String, Long> siteMaxBytes = new LinkedHashMap<>();
+        proxyConfig.getCacheSiteMaxBytes().forEach((siteName, maxBytes) ->
+                siteMaxBytes.put(CacheUtil.namespaceOf(siteName), maxBytes));
+        Map<String, Object> sites = new LinkedHashMap<>();
+        cacheIndex.getSiteBytes().forEach((namespace, bytes) -> {
+            Map<String, Object> map = new LinkedHashMap<>();
+            map.put("bytes", bytes);
+            map.put("maxBytes", siteMaxBytes.getOrDefault(namespace, 0L));
+            sites.put(namespace, map);
+        });
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("ready", cacheIndex.isReady());
+        stats.put("totalBytes", cacheIndex.getTotalBytes());
+        stats.put("maxBytes", proxyConfig.getCacheMaxBytes());
+        stats.put("sites", sites);
+        stats.put("evictedEntries", evictedEntries.get());
+        stats.put("evictedBytes", evictedBytes.get());
+        stats.put("lastRunAt", lastRunAt);
+        stats.put("lastRunMillis", lastRunMillis);
+        return stats;
+    }
+
+    private static class Candidate {
+        private final Path path;
+        private final CacheIndex.Entry entry;
+        private final long score;
+
+        private Candidate(Path path, CacheIndex.Entry entry, long score) {
+            this.path = path;
+            this.entry = entry;
+            this.score = score;
+        }
+    }
+}
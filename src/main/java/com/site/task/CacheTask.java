@@ -1,24 +1,38 @@
 package com.site.task;
 
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
 import com.site.entity.Site;
+import com.site.service.SiteDeletedEvent;
 import com.site.service.SiteService;
+import com.site.util.CacheMeta;
+import com.site.util.CacheUtil;
+import com.site.util.FetchedPage;
 import com.site.util.HttpUtils;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Component;
+import org.springframework.transaction.event.TransactionalEventListener;
 import org.jsoup.Jsoup;
 import org.jsoup.nodes.Document;
 import org.jsoup.nodes.Element;
 import org.jsoup.select.Elements;
+import org.apache.http.HttpStatus;
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.util.EntityUtils;
+import java.io.InputStream;
+import java.nio.charset.Charset;
 import java.util.*;
 import java.util.concurrent.*;
 import java.net.URI;
 import java.net.URISyntaxException;
+import java.nio.file.Path;
 import org.springframework.beans.factory.annotation.Value;
 import javax.annotation.PostConstruct;
 import javax.annotation.PreDestroy;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 @Slf4j
 @Component
@@ -27,6 +41,7 @@ public class CacheTask {
     
     private final SiteService siteService;
     private final HttpUtils httpUtils;
+    private final CacheUtil cacheUtil;
     
     @Value("${cache.task.thread.pool.size:10}")
     private int threadPoolSize;
@@ -41,6 +56,18 @@ public class CacheTask {
     private ScheduledExecutorService scheduledExecutor;
     private final Map<String, ConcurrentHashMap<String, Boolean>> siteVisitedUrls = new ConcurrentHashMap<>();
     private final AtomicInteger activeTaskCount = new AtomicInteger(0);
+    // 上次完整解析得到的页面链接，源站返回304时直接复用；按缓存文件记录，超出上限的从已缓存的页面重新解析
+    private final Cache<Path, Set<String>> pageLinks = Caffeine.newBuilder()
+            .maximumSize(10000)
+            .build();
+    // 源站返回304的次数
+    private final AtomicLong notModifiedCount = new AtomicLong(0);
+    // 按过期时间排序的待刷新条目；同一缓存文件以scheduledRefresh中的时间为准，队列中的旧记录出队时丢弃
+    private final PriorityBlockingQueue<RefreshItem> refreshQueue =
+            new PriorityBlockingQueue<>(256, Comparator.comparingLong(item -> item.dueAt));
+    private final Map<Path, Long> scheduledRefresh = new ConcurrentHashMap<>();
+    // 未到期而跳过校验的次数
+    private final AtomicLong skippedFreshCount = new AtomicLong(0);
     
     @PostConstruct
     public void init() {
@@ -71,8 +98,91 @@ public class CacheTask {
     }
     
     private void monitorTasks() {
-        log.info("缓存任务监控 - 活跃任务数: {}, 线程池大小: {}, 队列大小: {}", 
-                activeTaskCount.get(), executor.getPoolSize(), executor.getQueue().size());
+        log.info("缓存任务监控 - 活跃任务数: {}, 线程池大小: {}, 队列大小: {}, 未变化资源数: {}, 待刷新条目: {}, 未到期跳过: {}",
+                activeTaskCount.get(), executor.getPoolSize(), executor.getQueue().size(), notModifiedCount.get(),
+                scheduledRefresh.size(), skippedFreshCount.get());
+    }
+
+    /**
+     * 刷新到期的条目：只取出队首已到期的部分，其余条目不做任何请求。
+     * 站点已删除、停用或关闭缓存，以及条目已被淘汰时不再刷新
+     */
+    @Scheduled(fixedDelay = 5000)
+    public void refreshDue() {
+        long now = System.currentTimeMillis();
+        RefreshItem item;
+        while ((item = refreshQueue.peek()) != null && item.dueAt <= now) {
+            refreshQueue.poll();
+            if (!scheduledRefresh.remove(item.path, item.dueAt)) {
+                // 已重新安排过
+                continue;
+            }
+            // 按id重新读取站点，使用当前的启用状态和有效期设置
+            Site site = siteService.selectById(item.siteId);
+            if (site == null || !Integer.valueOf(1).equals(site.getEnabled())
+                    || !Integer.valueOf(1).equals(site.getIsCache())) {
+                log.debug("站点已删除或停用缓存，不再刷新: {}", item.url);
+                continue;
+            }
+            if (!cacheUtil.contains(item.cacheKey, site)) {
+                log.debug("缓存已淘汰，不再刷新: {}", item.url);
+                continue;
+            }
+            RefreshItem due = item;
+            executor.execute(() -> {
+                try {
+                    if (due.html) {
+                        revalidatePage(due.url, due.cacheKey, site);
+                    } else {
+                        revalidateResource(due.url, site);
+                    }
+                } catch (Exception e) {
+                    log.error("刷新到期缓存失败: {} - {}", due.url, e.getMessage());
+                }
+            });
+        }
+    }
+
+    /**
+     * 按元数据中的过期时间安排下一次刷新，永不过期的条目不进入队列
+     */
+    private void scheduleRefresh(String url, String cacheKey, Site site, boolean html, CacheMeta meta) {
+        Path path = cacheUtil.pathOf(cacheKey, site);
+        if (meta == null || meta.getExpiresAt() == 0) {
+            scheduledRefresh.remove(path);
+            return;
+        }
+        long dueAt = meta.getExpiresAt();
+        Long previous = scheduledRefresh.put(path, dueAt);
+        if (previous == null || previous != dueAt) {
+            refreshQueue.offer(new RefreshItem(url, cacheKey, path, site.getId(), html, dueAt));
+        }
+    }
+
+    /**
+     * 条目被容量淘汰后取消刷新并丢弃解析的链接，队列中的记录出队时丢弃
+     */
+    public void forget(Path path) {
+        scheduledRefresh.remove(path);
+        pageLinks.invalidate(path);
+    }
+
+    /**
+     * 站点删除提交后移除该站点的全部待刷新条目和解析的链接
+     */
+    @TransactionalEventListener
+    public void onSiteDeleted(SiteDeletedEvent event) {
+        Long siteId = event.getSite().getId();
+        refreshQueue.removeIf(item -> {
+            if (!siteId.equals(item.siteId)) {
+                return false;
+            }
+            scheduledRefresh.remove(item.path, item.dueAt);
+            return true;
+        });
+        Path siteDirectory = cacheUtil.siteDirectory(event.getSite());
+        pageLinks.asMap().keySet().removeIf(path -> path.startsWith(siteDirectory));
+        log.info("站点 {} 已删除，移除待刷新条目", event.getSite().getName());
     }
 
     @Scheduled(fixedRate = 1000*60*60) // 每小时执行一次
@@ -128,18 +238,11 @@ public class CacheTask {
             // 为每个站点创建新的访问记录
             ConcurrentHashMap<String, Boolean> visitedUrls = new ConcurrentHashMap<>();
             siteVisitedUrls.put(site.getName(), visitedUrls);
-            
-            // 尝试https
-            String baseUrl = String.format("https://%s", site.getName());
-            try {
-                httpUtils.get(baseUrl);
-                processUrl(baseUrl, site, 0, visitedUrls);
-            } catch (Exception e) {
-                log.info("HTTPS访问失败，尝试HTTP: {}", site.getName());
-                // https失败，尝试http
-                baseUrl = String.format("http://%s", site.getName());
-                processUrl(baseUrl, site, 0, visitedUrls);
-            }
+
+            // 直接从源站抓取，校验值和缓存文件一一对应
+            URI origin = new URI(site.getUrl());
+            String baseUrl = origin.getScheme() + "://" + origin.getRawAuthority();
+            processUrl(baseUrl + "/", site, 0, visitedUrls);
         } catch (Exception e) {
             log.error("站点 {} 缓存更新失败: {}", site.getName(), e.getMessage());
         } finally {
@@ -147,54 +250,192 @@ public class CacheTask {
             siteVisitedUrls.remove(site.getName());
         }
     }
-    
+
     private void processUrl(String currentUrl, Site site, int depth, ConcurrentHashMap<String, Boolean> visitedUrls) {
         if (depth > 5) return;
-        
+
+        String cacheKey = toCacheKey(currentUrl, site);
         if (currentUrl.endsWith("/")) {
             currentUrl = currentUrl.substring(0, currentUrl.length() - 1);
         }
-        
+
         if (visitedUrls.putIfAbsent(currentUrl, true) != null) return;
-        
+
         try {
-            String content = httpUtils.get(currentUrl);
-            log.debug("已缓存页面: {}", currentUrl);
-            
-            Document doc = Jsoup.parse(content);
-            doc.setBaseUri(currentUrl);
-            Set<String> urls = Collections.newSetFromMap(new ConcurrentHashMap<>());
-            
-            // 并行处理所有资源链接
-            CompletableFuture.allOf(
-                processLinks(doc, currentUrl, site, urls),
-                processImages(doc, currentUrl, site, urls),
-                processStyles(doc, currentUrl, site, urls),
-                processScripts(doc, currentUrl, site, urls)
-            ).join();
-            
+            Set<String> urls = revalidatePage(currentUrl, cacheKey, site);
+            if (urls == null) {
+                return;
+            }
+
             // 递归处理有HTML页面
             urls.stream()
                 .filter(this::isHtmlPage)
                 .forEach(url -> processUrl(url, site, depth + 1, visitedUrls));
-            
-            // 并行处理所有静态资源
+
+            // 处理所有静态资源
             urls.stream()
                 .filter(this::isStaticResource)
+                .filter(url -> visitedUrls.putIfAbsent(url, true) == null)
                 .forEach(url -> {
                     try {
-                        httpUtils.get(url);
-                        log.debug("已缓存资源: {}", url);
+                        revalidateResource(url, site);
                     } catch (Exception e) {
                         log.error("缓存资源失败: {} - {}", url, e.getMessage());
                     }
                 });
-            
+
         } catch (Exception e) {
             log.error("处理URL失败: {} - {}", currentUrl, e.getMessage());
         }
     }
-    
+
+    /**
+     * 条件请求刷新页面缓存，返回页面中的链接；源站返回304时复用上次解析的链接，不重新解析HTML
+     */
+    private Set<String> revalidatePage(String url, String cacheKey, Site site) throws Exception {
+        CacheMeta meta = cacheUtil.readMeta(cacheKey, site);
+        if (isScheduledAndFresh(meta)) {
+            // 未到期的页面不请求源站，到期后由刷新队列处理
+            skippedFreshCount.incrementAndGet();
+            scheduleRefresh(url, cacheKey, site, true, meta);
+            return cachedLinks(url, cacheKey, site);
+        }
+        try (CloseableHttpResponse response = httpUtils.getConditional(url, site, meta)) {
+            int statusCode = response.getStatusLine().getStatusCode();
+            if (statusCode == HttpStatus.SC_NOT_MODIFIED && meta != null) {
+                EntityUtils.consume(response.getEntity());
+                meta.refresh(response, site);
+                cacheUtil.writeMeta(cacheKey, site, meta);
+                scheduleRefresh(url, cacheKey, site, true, meta);
+                notModifiedCount.incrementAndGet();
+                log.debug("页面未变化: {}", url);
+                return cachedLinks(url, cacheKey, site);
+            }
+            if (statusCode != HttpStatus.SC_OK || response.getEntity() == null) {
+                EntityUtils.consume(response.getEntity());
+                pageLinks.invalidate(cacheUtil.pathOf(cacheKey, site));
+                log.warn("页面请求失败: {} - {}", url, statusCode);
+                return null;
+            }
+            byte[] content = EntityUtils.toByteArray(response.getEntity());
+            CacheMeta fetched = CacheMeta.fromResponse(response, site);
+            // 记录识别出的字符集，命中时按原始字节输出
+            Charset charset = FetchedPage.detectCharset(content, fetched.getCharset());
+            fetched.setCharset(charset.name());
+            if (fetched.isNoStore()) {
+                // 源站不允许保存：删除旧缓存，不再加入刷新队列，链接仍然解析
+                cacheUtil.remove(cacheKey, site);
+                forget(cacheUtil.pathOf(cacheKey, site));
+                log.debug("页面不允许缓存: {}", url);
+                return parseLinks(new String(content, charset), url, site);
+            }
+            cacheUtil.put(cacheKey, content, site);
+            cacheUtil.writeMeta(cacheKey, site, fetched);
+            scheduleRefresh(url, cacheKey, site, true, fetched);
+            log.debug("已缓存页面: {}", url);
+
+            Set<String> links = parseLinks(new String(content, charset), url, site);
+            pageLinks.put(cacheUtil.pathOf(cacheKey, site), links);
+            return links;
+        }
+    }
+
+    /**
+     * 上次解析的页面链接，重启后首次使用时从已缓存的页面中解析一次
+     */
+    private Set<String> cachedLinks(String url, String cacheKey, Site site) {
+        Path path = cacheUtil.pathOf(cacheKey, site);
+        Set<String> links = pageLinks.getIfPresent(path);
+        if (links == null) {
+            String cached = cacheUtil.get(cacheKey, site);
+            if (cached == null) {
+                return Collections.emptySet();
+            }
+            links = parseLinks(cached, url, site);
+            pageLinks.put(path, links);
+        }
+        return links;
+    }
+
+    /**
+     * 有过期时间且尚未过期，无需请求源站
+     */
+    private boolean isScheduledAndFresh(CacheMeta meta) {
+        return meta != null && meta.getExpiresAt() != 0 && meta.isFresh(System.currentTimeMillis());
+    }
+
+    /**
+     * 条件请求刷新静态资源缓存，源站返回304时只更新元数据
+     */
+    private void revalidateResource(String url, Site site) throws Exception {
+        String cacheKey = toCacheKey(url, site);
+        CacheMeta meta = cacheUtil.readMeta(cacheKey, site);
+        if (isScheduledAndFresh(meta)) {
+            skippedFreshCount.incrementAndGet();
+            scheduleRefresh(url, cacheKey, site, false, meta);
+            return;
+        }
+        try (CloseableHttpResponse response = httpUtils.getConditional(url, site, meta)) {
+            int statusCode = response.getStatusLine().getStatusCode();
+            if (statusCode == HttpStatus.SC_NOT_MODIFIED && meta != null) {
+                EntityUtils.consume(response.getEntity());
+                meta.refresh(response, site);
+                cacheUtil.writeMeta(cacheKey, site, meta);
+                scheduleRefresh(url, cacheKey, site, false, meta);
+                notModifiedCount.incrementAndGet();
+                return;
+            }
+            if (statusCode != HttpStatus.SC_OK || response.getEntity() == null) {
+                EntityUtils.consume(response.getEntity());
+                log.warn("资源请求失败: {} - {}", url, statusCode);
+                return;
+            }
+            CacheMeta fetched = CacheMeta.fromResponse(response, site);
+            if (fetched.isNoStore()) {
+                EntityUtils.consume(response.getEntity());
+                cacheUtil.remove(cacheKey, site);
+                forget(cacheUtil.pathOf(cacheKey, site));
+                log.debug("资源不允许缓存: {}", url);
+                return;
+            }
+            try (InputStream is = response.getEntity().getContent();
+                 CacheUtil.Sink sink = cacheUtil.openSink(cacheKey, site)) {
+                byte[] buffer = new byte[8192];
+                int length;
+                while ((length = is.read(buffer)) != -1) {
+                    sink.write(buffer, 0, length);
+                }
+                sink.commit();
+            }
+            cacheUtil.writeMeta(cacheKey, site, fetched);
+            scheduleRefresh(url, cacheKey, site, false, fetched);
+            log.debug("已缓存资源: {}", url);
+        }
+    }
+
+    /**
+     * 源站URL对应的缓存key，与代理请求的 域名+路径 一致
+     */
+    private String toCacheKey(String url, Site site) {
+        String path = URI.create(url).getRawPath();
+        return site.getName() + (path == null || path.isEmpty() ? "/" : path);
+    }
+
+    private Set<String> parseLinks(String content, String currentUrl, Site site) {
+        Document doc = Jsoup.parse(content);
+        doc.setBaseUri(currentUrl);
+        Set<String> urls = Collections.newSetFromMap(new ConcurrentHashMap<>());
+
+        // 并行处理所有资源链接
+        CompletableFuture.allOf(
+            processLinks(doc, currentUrl, site, urls),
+            processImages(doc, currentUrl, site, urls),
+            processStyles(doc, currentUrl, site, urls),
+            processScripts(doc, currentUrl, site, urls)
+        ).join();
+        return urls;
+    }
+
     private CompletableFuture<Void> processLinks(Document doc, String currentUrl, Site site, Set<String> urls) {
         return CompletableFuture.runAsync(() -> {
             Elements links = doc.select("a[href]");
@@ -257,9 +498,10 @@ public class CacheTask {
             String protocol = baseUrl.startsWith("https") ? "https" : "http";
             
             // 如果是完整的URL，检查是否属于当前站点
+            URI base = new URI(baseUrl);
             if (path.startsWith("http://") || path.startsWith("https://")) {
                 URI uri = new URI(path);
-                if (!uri.getHost().equals(site.getName())) {
+                if (!base.getHost().equals(uri.getHost())) {
                     return null;
                 }
                 return path;
@@ -272,7 +514,6 @@ public class CacheTask {
             
             // 处理相对路径
             if (!path.startsWith("/")) {
-                URI base = new URI(baseUrl);
                 String basePath = base.getPath();
                 if (!basePath.endsWith("/")) {
                     basePath = basePath.substring(0, basePath.lastIndexOf('/') + 1);
@@ -283,7 +524,7 @@ public class CacheTask {
             // 处理 ../ 和 ./
             path = normalizePath(path);
             
-            return String.format("%s://%s%s", protocol, site.getName(), path);
+            return String.format("%s://%s%s", protocol, base.getRawAuthority(), path);
         } catch (URISyntaxException e) {
             log.error("URL解析失败: {} - {}", path, e.getMessage());
             return null;
@@ -326,7 +567,7 @@ public class CacheTask {
             // 检查是否为目录型URL
             boolean isDirectory = path.isEmpty() || path.endsWith("/") || !path.contains(".");
             
-            return uri.getHost().equals(site.getName()) && // 同一域名
+            return uri.getHost().equals(URI.create(site.getUrl()).getHost()) && // 同一源站
                    !url.contains("#") &&                   // 排除锚点
                    !url.contains("?") &&                   // 排除参数
                    (isDirectory || isHtmlPage(url) || isStaticResource(url)); // 只处理目录、HTML页面和静态资源
@@ -348,4 +589,23 @@ public class CacheTask {
         String lowercaseUrl = url.toLowerCase();
         return lowercaseUrl.matches(".+\\.(jpg|jpeg|png|gif|css|js|ico|svg|woff|woff2|ttf|eot|mp4|webp|pdf)$");
     }
+
+    private static class RefreshItem {
+        private final String url;
+        private final String cacheKey;
+        private final Path path;
+        // 只记录站点id，到期时重新读取站点
+        private final Long siteId;
+        private final boolean html;
+        private final long dueAt;
+
+        private RefreshItem(String url, String cacheKey, Path path, Long siteId, boolean html, long dueAt) {
+            this.url = url;
+            this.cacheKey = cacheKey;
+            this.path = path;
+            this.siteId = siteId;
+            this.html = html;
+            this.dueAt = dueAt;
+        }
+    }
 }
@@ -0,0 +1,23 @@
+package com.site.task;
+
+import com.site.util.PackStore;
+import lombok.RequiredArgsConstructor;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+/**
+ * 定期整理段文件存储中的无效空间，未使用pack引擎时不做任何事
+ */
+@Component
+@RequiredArgsConstructor
+public class PackCompactionTask {
+
+    private final PackStore packStore;
+
+    @Scheduled(fixedDelayString = "${proxy.cache-pack-compact-interval:300000}")
+    public void compact() {
+        if (packStore.isEnabled()) {
+            packStore.compact();
+        }
+    }
+}
@@ -0,0 +1,136 @@
+package com.site.util;
+
+import com.site.config.UpstreamProperties;
+import com.site.entity.Site;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+/**
+ * 非阻塞源站客户端，等待源站响应期间不占用任何线程，供异步代理模式使用。
+ * 与HttpUtils使用相同的请求头、超时和连接上限（总数、每个源站、按站点覆盖），
+ * 达到上限时不排队，直接以RejectedExecutionException失败，由调用方返回旧缓存或503
+ */
+@Component
+public class AsyncHttpUtils {
+
+    private final HttpClient client;
+    private final Duration requestTimeout;
+    private final UpstreamProperties upstreamProperties;
+    private final Semaphore totalPermits;
+    // 按源站（协议+主机+端口）限制同时进行的请求数，HTTP/1.1下即连接数
+    private final Map<String, Semaphore> routePermits = new ConcurrentHashMap<>();
+    private final AtomicLong rejected = new AtomicLong();
+
+    public AsyncHttpUtils(UpstreamProperties upstreamProperties,
+                          @Qualifier("httpClientExecutor") Executor httpClientExecutor) {
+        this.upstreamProperties = upstreamProperties;
+        this.requestTimeout = Duration.ofMillis(upstreamProperties.getSocketTimeout());
+        this.totalPermits = new Semaphore(upstreamProperties.getMaxTotal());
+        this.client = HttpClient.newBuilder()
+                // 与连接池一致使用HTTP/1.1，每个请求占用一个连接，连接上限才有意义
+                .version(HttpClient.Version.HTTP_1_1)
+                .connectTimeout(Duration.ofMillis(upstreamProperties.getConnectTimeout()))
+                .followRedirects(HttpClient.Redirect.NORMAL)
+                // 响应回调在http客户端线程池中执行
+                .executor(httpClientExecutor)
+                .build();
+    }
+
+    /**
+     * 获取页面原始字节，与HttpUtils.fetch一致：状态码不低于400时失败，
+     * responseHandler不为null时在返回前回调，用于记录源站响应头
+     */
+    public CompletableFuture<FetchedPage> fetch(String urlStr, Site site,
+                                                Consumer<HttpResponse<byte[]>> responseHandler) {
+        URI uri = URI.create(urlStr);
+        Semaphore route = routePermits.computeIfAbsent(routeOf(uri), key -> new Semaphore(maxPerRoute(site)));
+        if (!totalPermits.tryAcquire()) {
+            return saturated(urlStr);
+        }
+        if (!route.tryAcquire()) {
+            totalPermits.release();
+            return saturated(urlStr);
+        }
+        HttpRequest request = HttpRequest.newBuilder(uri)
+                .timeout(requestTimeout)
+                // 设置请求头，模拟浏览器
+                .header("User-Agent", "Mozilla/5.0 (Windows NT 10.0; Win64; x64) AppleWebKit/537.36 (KHTML, like Gecko) Chrome/91.0.4472.124 Safari/537.36")
+                .header("Accept", "text/html,application/xhtml+xml,application/xml;q=0.9,image/webp,*/*;q=0.8")
+                .header("Accept-Language", "zh-CN,zh;q=0.9,en;q=0.8")
+                .header("Cache-Control", "max-age=0")
+                .GET()
+                .build();
+        CompletableFuture<HttpResponse<byte[]>> sent;
+        try {
+            sent = client.sendAsync(request, HttpResponse.BodyHandlers.ofByteArray());
+        } catch (RuntimeException e) {
+            route.release();
+            totalPermits.release();
+            throw e;
+        }
+        return sent.whenComplete((response, ex) -> {
+                    route.release();
+                    totalPermits.release();
+                })
+                .thenApply(response -> {
+                    if (response.statusCode() >= 400) {
+                        throw new CompletionException(
+                                new IOException("源站响应异常: " + response.statusCode() + " " + urlStr));
+                    }
+                    if (responseHandler != null) {
+                        responseHandler.accept(response);
+                    }
+                    return FetchedPage.of(response.body(),
+                            response.headers().firstValue("Content-Type").orElse(null));
+                });
+    }
+
+    private CompletableFuture<FetchedPage> saturated(String urlStr) {
+        rejected.incrementAndGet();
+        return CompletableFuture.failedFuture(new RejectedExecutionException("源站连接已达上限: " + urlStr));
+    }
+
+    /**
+     * 与HttpUtils一致：站点单独配置的上限优先，否则使用默认的每个源站上限
+     */
+    private int maxPerRoute(Site site) {
+        Integer max = site != null && site.getName() != null
+                ? upstreamProperties.getSiteMaxConnections().get(site.getName()) : null;
+        return max != null ? max : upstreamProperties.getDefaultMaxPerRoute();
+    }
+
+    private static String routeOf(URI uri) {
+        int port = uri.getPort();
+        if (port < 0) {
+            port = "https".equalsIgnoreCase(uri.getScheme()) ? 443 : 80;
+        }
+        return uri.getScheme() + "://" + uri.getHost() + ":" + port;
+    }
+
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("inFlight", upstreamProperties.getMaxTotal() - totalPermits.availablePermits());
+        Map<String, Object> routes = new LinkedHashMap<>();
+        routePermits.forEach((route, permits) -> routes.put(route, permits.availablePermits()));
+        stats.put("availableByRoute", routes);
+        stats.put("rejected", rejected.get());
+        return stats;
+    }
+}
@@ -0,0 +1,36 @@
+package com.site.util;
+
+import lombok.Data;
+
+import java.nio.file.Path;
+
+/**
+ * 缓存条目的文件信息和校验值
+ */
+@Data
+public class CacheEntry {
+    /**
+     * 缓存文件路径
+     */
+    private final Path path;
+    /**
+     * 文件大小
+     */
+    private final long size;
+    /**
+     * 最后修改时间（毫秒）
+     */
+    private final long lastModified;
+    /**
+     * 内容编码，原始内容为null，压缩副本为gzip
+     */
+    private final String encoding;
+
+    /**
+     * 强校验值：由文件大小和修改时间组成，内容变化时一定随之改变；不同编码的副本校验值不同
+     */
+    public String getEtag() {
+        String tag = Long.toHexString(size) + "-" + Long.toHexString(lastModified);
+        return "\"" + (encoding != null ? tag + "-" + encoding : tag) + "\"";
+    }
+}
@@ -0,0 +1,176 @@
+package com.site.util;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * 正在回源写入缓存的资源。下载在后台按源站速度写入缓存临时文件，所有请求（包括触发下载的请求）
+ * 都从临时文件按各自客户端的速度读取已写入的部分，一个慢客户端不会拖慢其他请求，源站只请求一次
+ */
+public final class CacheFill {
+
+    private static final long WAIT_MILLIS = 1000;
+
+    // 源站响应头到达后设置
+    private CacheMeta meta;
+    private long contentLength = -1;
+    // 缓存临时文件，内容先写入内存（pack引擎的小对象）时为null
+    private Path file;
+    private long written;
+    private boolean done;
+    private Throwable failure;
+
+    public synchronized void started(CacheMeta meta, long contentLength) {
+        this.meta = meta;
+        this.contentLength = contentLength;
+        notifyAll();
+    }
+
+    /**
+     * 已写入并刷新到file的字节数，file为null时表示内容仍在内存中
+     */
+    public synchronized void advance(Path file, long written) {
+        if (this.file == null) {
+            this.file = file;
+        }
+        this.written = written;
+        notifyAll();
+    }
+
+    /**
+     * 缓存已发布，之后的请求直接读取缓存
+     */
+    public synchronized void complete() {
+        done = true;
+        notifyAll();
+    }
+
+    public synchronized void fail(Throwable failure) {
+        this.failure = failure;
+        done = true;
+        notifyAll();
+    }
+
+    /**
+     * 等待源站响应头，返回源站元数据；下载失败时抛出IOException
+     */
+    public synchronized CacheMeta awaitStart(long timeoutMillis) throws IOException, TimeoutException,
+            InterruptedException {
+        long deadline = System.currentTimeMillis() + timeoutMillis;
+        while (meta == null && !done) {
+            long remaining = deadline - System.currentTimeMillis();
+            if (remaining <= 0) {
+                throw new TimeoutException("等待源站响应超时");
+            }
+            wait(remaining);
+        }
+        checkFailure();
+        return meta;
+    }
+
+    /**
+     * 等待下载结束，失败时抛出IOException
+     */
+    public synchronized void awaitDone() throws IOException, InterruptedException {
+        while (!done) {
+            wait(WAIT_MILLIS);
+        }
+        checkFailure();
+    }
+
+    public synchronized boolean isDone() {
+        return done;
+    }
+
+    public synchronized long getContentLength() {
+        return contentLength;
+    }
+
+    private void checkFailure() throws IOException {
+        if (failure instanceof IOException) {
+            throw (IOException) failure;
+        }
+        if (failure != null) {
+            throw new IOException("回源失败: " + failure.getMessage(), failure);
+        }
+    }
+
+    /**
+     * 从头读取正在写入的内容，读到已写入的末尾时等待后续内容，下载完成后结束；
+     * 下载中途失败时读取抛出IOException。内容不在临时文件中（仍在内存或已发布）时返回null，
+     * 调用方应等待下载结束后读取缓存
+     */
+    public InputStream openStream() throws IOException, InterruptedException {
+        Path path;
+        synchronized (this) {
+            while (file == null && !done) {
+                wait(WAIT_MILLIS);
+            }
+            checkFailure();
+            path = file;
+        }
+        if (path == null) {
+            return null;
+        }
+        try {
+            // 发布时临时文件被重命名，已打开的通道仍可读到完整内容
+            return new TailStream(FileChannel.open(path, StandardOpenOption.READ));
+        } catch (NoSuchFileException e) {
+            return null;
+        }
+    }
+
+    private final class TailStream extends InputStream {
+        private final FileChannel channel;
+        private long position;
+
+        private TailStream(FileChannel channel) {
+            this.channel = channel;
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] single = new byte[1];
+            return read(single, 0, 1) == -1 ? -1 : single[0] & 0xFF;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int length) throws IOException {
+            if (length == 0) {
+                return 0;
+            }
+            long available;
+            synchronized (CacheFill.this) {
+                while (position >= written && !done) {
+                    try {
+                        CacheFill.this.wait(WAIT_MILLIS);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        throw new IOException("读取被中断", e);
+                    }
+                }
+                checkFailure();
+                available = written - position;
+            }
+            if (available <= 0) {
+                return -1;
+            }
+            int count = channel.read(ByteBuffer.wrap(buffer, offset, (int) Math.min(length, available)), position);
+            if (count > 0) {
+                position += count;
+            }
+            return count;
+        }
+
+        @Override
+        public void close() throws IOException {
+            channel.close();
+        }
+    }
+}
@@ -0,0 +1,426 @@
+package com.site.util;
+
+import lombok.Getter;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * 磁盘缓存的内存索引：启动时并行扫描缓存目录建立，之后由CacheUtil在每次写入后同步更新。
+ * 索引就绪后查询、未命中和gzip副本判断都不再访问文件系统；同时统计各站点占用的字节数和条目访问情况，供容量淘汰使用
+ */
+@Slf4j
+@Component
+@RequiredArgsConstructor
+public class CacheIndex {
+
+    // 修改时间早于扫描开始前该时长的临时文件视为残留
+    private static final long STALE_TEMP_MILLIS = 60 * 60 * 1000L;
+
+    private final PackStore packStore;
+    private final Path cacheRoot = Paths.get(CacheUtil.CACHE_DIR).toAbsolutePath();
+    private final Map<Path, Entry> entries = new ConcurrentHashMap<>();
+    // 扫描时发现旧版布局文件的站点目录，这些站点未命中时仍需检查旧路径
+    private final Set<String> legacyNamespaces = ConcurrentHashMap.newKeySet();
+    private final AtomicLong scannedFiles = new AtomicLong();
+    // 按站点目录统计的缓存字节数（原文件和gzip副本）
+    private final Map<String, AtomicLong> siteBytes = new ConcurrentHashMap<>();
+    private volatile boolean ready;
+    private volatile long scanMillis;
+    private volatile long staleTempBefore;
+
+    @PostConstruct
+    public void rebuild() {
+        CompletableFuture.runAsync(this::scan).exceptionally(e -> {
+            log.error("缓存索引扫描失败，继续按文件系统查询", e);
+            return null;
+        });
+    }
+
+    /**
+     * 按新布局 cache/{站点}/{2位}/{2位}/文件 扫描，以第一级hash目录为单位并行
+     */
+    private void scan() {
+        long start = System.currentTimeMillis();
+        staleTempBefore = start - STALE_TEMP_MILLIS;
+        List<Path> shards = new ArrayList<>();
+        if (Files.isDirectory(cacheRoot)) {
+            for (Path siteDir : list(cacheRoot)) {
+                if (!Files.isDirectory(siteDir) || siteDir.getFileName().toString().equals(PackStore.PACK_DIR)) {
+                    continue;
+                }
+                for (Path child : list(siteDir)) {
+                    if (isShardDirectory(child)) {
+                        shards.add(child);
+                    } else {
+                        legacyNamespaces.add(siteDir.getFileName().toString());
+                    }
+                }
+            }
+        }
+        shards.parallelStream().forEach(shard -> {
+            for (Path leaf : list(shard)) {
+                if (isShardDirectory(leaf)) {
+                    scanLeaf(leaf);
+                } else {
+                    legacyNamespaces.add(shard.getParent().getFileName().toString());
+                }
+            }
+        });
+        scanPack();
+        scanMillis = System.currentTimeMillis() - start;
+        ready = true;
+        log.info("缓存索引已建立: {} 个条目, 扫描 {} 个文件, 耗时 {} ms, 含旧版布局的站点: {}",
+                entries.size(), scannedFiles.get(), scanMillis, legacyNamespaces);
+    }
+
+    private void scanLeaf(Path leaf) {
+        List<Path> gzipFiles = new ArrayList<>();
+        for (Path file : list(leaf)) {
+            scannedFiles.incrementAndGet();
+            String name = file.getFileName().toString();
+            if (name.endsWith(CacheUtil.META_SUFFIX)) {
+                continue;
+            }
+            if (name.endsWith(".tmp")) {
+                // 写入中途退出留下的临时文件；较新的可能仍在写入，保留
+                BasicFileAttributes attributes = readAttributes(file);
+                if (attributes != null && attributes.lastModifiedTime().toMillis() < staleTempBefore) {
+                    deleteQuietly(file);
+                }
+                continue;
+            }
+            if (name.endsWith(CacheUtil.GZIP_SUFFIX)) {
+                gzipFiles.add(file);
+                continue;
+            }
+            BasicFileAttributes attributes = readAttributes(file);
+            if (attributes != null && attributes.isRegularFile()) {
+                // 扫描期间已有写入时以写入结果为准
+                Entry entry = new Entry(new CacheEntry(file, attributes.size(),
+                        attributes.lastModifiedTime().toMillis(), null));
+                if (entries.putIfAbsent(file, entry) == null) {
+                    addBytes(file, entry.footprint());
+                }
+            }
+        }
+        for (Path file : gzipFiles) {
+            String name = file.getFileName().toString();
+            Entry entry = entries.get(file.resolveSibling(name.substring(0, name.length() - CacheUtil.GZIP_SUFFIX.length())));
+            BasicFileAttributes attributes = readAttributes(file);
+            if (entry != null && attributes != null) {
+                addBytes(file, entry.updateGzip(file, attributes.size(), attributes.lastModifiedTime().toMillis()));
+            }
+        }
+    }
+
+    /**
+     * 段文件中的对象在启动时已由PackStore加载，与单独文件同时存在时以段文件为准
+     */
+    private void scanPack() {
+        List<Map.Entry<Path, PackStore.Location>> gzipObjects = new ArrayList<>();
+        packStore.forEach((path, location) -> {
+            String name = path.getFileName().toString();
+            if (name.endsWith(CacheUtil.GZIP_SUFFIX)) {
+                gzipObjects.add(Map.entry(path, location));
+            } else if (!name.endsWith(CacheUtil.META_SUFFIX)) {
+                published(path, location.getLength(), location.getLastModified());
+            }
+        });
+        for (Map.Entry<Path, PackStore.Location> item : gzipObjects) {
+            published(item.getKey(), item.getValue().getLength(), item.getValue().getLastModified());
+        }
+    }
+
+    private boolean isShardDirectory(Path path) {
+        String name = path.getFileName().toString();
+        return name.length() == 2 && Character.digit(name.charAt(0), 16) >= 0
+                && Character.digit(name.charAt(1), 16) >= 0 && Files.isDirectory(path);
+    }
+
+    public boolean isReady() {
+        return ready;
+    }
+
+    public Entry get(Path path) {
+        return entries.get(path);
+    }
+
+    /**
+     * 缓存目录中是否可能还有旧版布局的文件；索引未就绪时无法判断，按可能存在处理
+     */
+    public boolean hasLegacyFiles() {
+        return !ready || !legacyNamespaces.isEmpty();
+    }
+
+    /**
+     * 旧版布局路径所在的一级目录下是否可能还有旧版文件；索引未就绪时无法判断，按可能存在处理
+     */
+    public boolean hasLegacyFiles(Path path) {
+        if (!ready) {
+            return true;
+        }
+        Path relative = cacheRoot.relativize(path);
+        return relative.getNameCount() > 1 && legacyNamespaces.contains(relative.getName(0).toString());
+    }
+
+    /**
+     * 文件发布到缓存目录后调用：主文件更新条目，gzip副本挂到对应主文件的条目上。
+     * 主文件已被淘汰的gzip副本返回false，由调用方删除
+     */
+    public boolean published(Path path) {
+        if (path.getFileName().toString().endsWith(CacheUtil.META_SUFFIX)) {
+            metaPublished(path);
+            return true;
+        }
+        BasicFileAttributes attributes = readAttributes(path);
+        if (attributes == null) {
+            return true;
+        }
+        return published(path, attributes.size(), attributes.lastModifiedTime().toMillis());
+    }
+
+    /**
+     * 按给定的大小和修改时间更新条目，用于不对应单独文件的对象（段文件存储）
+     */
+    public boolean published(Path path, long size, long lastModified) {
+        String name = path.getFileName().toString();
+        if (name.endsWith(CacheUtil.META_SUFFIX)) {
+            metaPublished(path);
+            return true;
+        }
+        if (name.endsWith(CacheUtil.GZIP_SUFFIX)) {
+            Entry entry = entries.get(path.resolveSibling(name.substring(0, name.length() - CacheUtil.GZIP_SUFFIX.length())));
+            if (entry != null) {
+                addBytes(path, entry.updateGzip(path, size, lastModified));
+                return true;
+            }
+            // 索引未就绪时主文件可能尚未扫描到
+            return !ready;
+        }
+        CacheEntry cacheEntry = new CacheEntry(path, size, lastModified, null);
+        // 元数据文件没有随内容变化，沿用已加载的结果。旧的gzip副本在新副本发布前仍在磁盘上，
+        // 继续计入占用（getGzip按修改时间不再返回它），新副本发布时按两者的差值更新
+        entries.compute(path, (key, existing) -> {
+            Entry entry = new Entry(cacheEntry);
+            long delta = entry.footprint();
+            if (existing != null) {
+                entry.meta.set(existing.meta.get());
+                entry.hits = existing.hits;
+                entry.gzip = existing.gzip;
+                delta = entry.footprint() - existing.footprint();
+            }
+            addBytes(path, delta);
+            return entry;
+        });
+        return true;
+    }
+
+    /**
+     * 元数据文件发布后清除对应条目已加载的元数据，下次使用时重新读取。
+     * 页面由后台写入时元数据文件可能晚于主文件发布，期间的命中会把条目记为没有元数据
+     */
+    private void metaPublished(Path metaPath) {
+        String name = metaPath.getFileName().toString();
+        Entry entry = entries.get(metaPath.resolveSibling(name.substring(0, name.length() - CacheUtil.META_SUFFIX.length())));
+        if (entry != null) {
+            entry.meta.set(null);
+        }
+    }
+
+    /**
+     * 条目仍是entry时才移除，被淘汰期间重新写入的条目保留
+     */
+    public boolean remove(Path path, Entry entry) {
+        if (entries.remove(path, entry)) {
+            addBytes(path, -entry.footprint());
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * 读取时发现文件已不存在，移除条目
+     */
+    public void remove(Path path) {
+        Entry entry = entries.get(path);
+        if (entry != null) {
+            remove(path, entry);
+        }
+    }
+
+    /**
+     * 指定站点目录（为null时为全部站点）下的条目快照
+     */
+    public List<Map.Entry<Path, Entry>> snapshot(String namespace) {
+        List<Map.Entry<Path, Entry>> result = new ArrayList<>();
+        for (Map.Entry<Path, Entry> item : entries.entrySet()) {
+            if (namespace == null || namespace.equals(namespaceOf(item.getKey()))) {
+                result.add(item);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * 所有条目的访问次数减半
+     */
+    public void decayHits() {
+        entries.values().forEach(Entry::decay);
+    }
+
+    public long getUsedBytes(String namespace) {
+        AtomicLong bytes = siteBytes.get(namespace);
+        return bytes != null ? bytes.get() : 0;
+    }
+
+    public long getTotalBytes() {
+        return siteBytes.values().stream().mapToLong(AtomicLong::get).sum();
+    }
+
+    public Map<String, Long> getSiteBytes() {
+        Map<String, Long> result = new LinkedHashMap<>();
+        siteBytes.forEach((namespace, bytes) -> result.put(namespace, bytes.get()));
+        return result;
+    }
+
+    private void addBytes(Path path, long delta) {
+        if (delta != 0) {
+            siteBytes.computeIfAbsent(namespaceOf(path), key -> new AtomicLong()).addAndGet(delta);
+        }
+    }
+
+    private String namespaceOf(Path path) {
+        Path relative = path.startsWith(cacheRoot) ? cacheRoot.relativize(path) : path;
+        return relative.getNameCount() > 1 ? relative.getName(0).toString() : "";
+    }
+
+    private List<Path> list(Path dir) {
+        List<Path> children = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(dir)) {
+            stream.forEach(children::add);
+        } catch (IOException e) {
+            log.warn("读取缓存目录失败: {}", dir, e);
+        }
+        return children;
+    }
+
+    private BasicFileAttributes readAttributes(Path path) {
+        try {
+            return Files.readAttributes(path, BasicFileAttributes.class);
+        } catch (NoSuchFileException e) {
+            return null;
+        } catch (IOException e) {
+            log.warn("读取缓存文件属性失败: {}", path, e);
+            return null;
+        }
+    }
+
+    private void deleteQuietly(Path path) {
+        try {
+            Files.deleteIfExists(path);
+        } catch (IOException e) {
+            log.warn("删除缓存临时文件失败: {}", path, e);
+        }
+    }
+
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("ready", ready);
+        stats.put("entries", entries.size());
+        stats.put("scannedFiles", scannedFiles.get());
+        stats.put("scanMillis", scanMillis);
+        stats.put("legacyNamespaces", legacyNamespaces);
+        stats.put("totalBytes", getTotalBytes());
+        return stats;
+    }
+
+    /**
+     * 索引条目：文件信息、gzip副本信息，以及按需加载的源站元数据
+     */
+    public static class Entry {
+        // 访问次数对淘汰顺序的加成上限
+        private static final int MAX_HITS = 15;
+
+        @Getter
+        private final CacheEntry entry;
+        private volatile CacheEntry gzip;
+        // null表示尚未加载，Optional.empty()表示磁盘上没有元数据
+        @Getter
+        private final AtomicReference<Optional<CacheMeta>> meta = new AtomicReference<>();
+        // 最近访问时间和近似访问次数，并发更新时允许少量丢失
+        private volatile long lastAccess;
+        private volatile int hits;
+
+        private Entry(CacheEntry entry) {
+            this.entry = entry;
+            this.lastAccess = entry.getLastModified();
+        }
+
+        public void touch() {
+            lastAccess = System.currentTimeMillis();
+            if (hits < MAX_HITS) {
+                hits++;
+            }
+        }
+
+        /**
+         * 淘汰优先级，越小越先淘汰：最近访问时间加上按访问次数计算的加成
+         */
+        public long score(long frequencyBonusMillis) {
+            return lastAccess + hits * frequencyBonusMillis;
+        }
+
+        /**
+         * 访问次数减半，使过去的热点逐渐失去加成
+         */
+        public void decay() {
+            hits = hits >> 1;
+        }
+
+        /**
+         * 条目占用的磁盘字节数
+         */
+        public long footprint() {
+            CacheEntry current = gzip;
+            return entry.getSize() + (current != null ? current.getSize() : 0);
+        }
+
+        /**
+         * 与原文件一致的gzip副本，副本比原文件旧时视为不存在
+         */
+        public CacheEntry getGzip() {
+            CacheEntry current = gzip;
+            return current != null && current.getLastModified() == entry.getLastModified() ? current : null;
+        }
+
+        /**
+         * 关联gzip副本，返回占用字节数的变化。比原文件旧的副本同样计入占用，但保留自己的修改时间，getGzip不会返回
+         */
+        private synchronized long updateGzip(Path path, long size, long lastModified) {
+            CacheEntry previous = gzip;
+            long stamp = Math.min(lastModified, entry.getLastModified());
+            gzip = new CacheEntry(path, size, stamp, "gzip");
+            return size - (previous != null ? previous.getSize() : 0);
+        }
+    }
+}
@@ -0,0 +1,339 @@
+package com.site.util;
+
+import com.site.entity.Site;
+import lombok.Data;
+import org.apache.http.Header;
+import org.apache.http.HttpResponse;
+import org.apache.http.client.utils.DateUtils;
+import org.apache.http.entity.ContentType;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+
+/**
+ * 缓存条目的源站元数据，以紧凑的二进制格式保存在缓存文件旁，命中时回放状态码、内容类型和响应头
+ */
+@Data
+public class CacheMeta {
+
+    private static final int VERSION = 4;
+    // 随缓存保存并在命中时原样返回的源站响应头；ETag、Last-Modified由缓存文件生成，不在此列
+    private static final List<String> REPLAYED_HEADERS = Arrays.asList(
+            "Cache-Control", "Expires", "Content-Language", "Content-Disposition",
+            "Access-Control-Allow-Origin", "X-Content-Type-Options");
+
+    /**
+     * 最近一次从源站获取或校验的时间（毫秒）
+     */
+    private long fetchedAt;
+    /**
+     * 过期时间（毫秒），0表示永不过期
+     */
+    private long expiresAt;
+    /**
+     * 源站ETag
+     */
+    private String etag;
+    /**
+     * 源站Last-Modified
+     */
+    private String lastModified;
+    /**
+     * 源站状态码
+     */
+    private int status = 200;
+    /**
+     * 源站内容类型（不含参数），未知时为null
+     */
+    private String contentType;
+    /**
+     * 缓存文件内容的字符集，未知时为null
+     */
+    private String charset;
+    /**
+     * 需要回放的源站响应头，不可修改
+     */
+    private Map<String, String> headers = Collections.emptyMap();
+    /**
+     * 关键字替换结果使用的规则版本，只出现在替换结果的元数据中
+     */
+    private long ruleVersion;
+
+    /**
+     * 从源站响应中提取校验值，并按站点策略计算过期时间
+     */
+    public static CacheMeta fromResponse(HttpResponse response, Site site) {
+        return fromHeaders(response.getStatusLine().getStatusCode(), name -> headerValue(response, name), site);
+    }
+
+    /**
+     * 非阻塞客户端（java.net.http）的响应，处理与fromResponse(HttpResponse, Site)相同
+     */
+    public static CacheMeta fromResponse(java.net.http.HttpResponse<?> response, Site site) {
+        return fromHeaders(response.statusCode(), name -> response.headers().firstValue(name).orElse(null), site);
+    }
+
+    private static CacheMeta fromHeaders(int status, Function<String, String> header, Site site) {
+        CacheMeta meta = new CacheMeta();
+        meta.setEtag(header.apply("ETag"));
+        meta.setLastModified(header.apply("Last-Modified"));
+        meta.setStatus(status);
+        String contentType = header.apply("Content-Type");
+        if (contentType != null) {
+            try {
+                ContentType parsed = ContentType.parse(contentType);
+                meta.setContentType(parsed.getMimeType());
+                Charset charset = parsed.getCharset();
+                meta.setCharset(charset != null ? charset.name() : null);
+            } catch (RuntimeException e) {
+                // 无法解析的Content-Type按未知处理，命中时使用扩展名推断的类型
+            }
+        }
+        Map<String, String> headers = new LinkedHashMap<>();
+        for (String name : REPLAYED_HEADERS) {
+            String value = header.apply(name);
+            if (value != null) {
+                headers.put(name, value);
+            }
+        }
+        meta.setHeaders(headers);
+        meta.refresh(site);
+        return meta;
+    }
+
+    /**
+     * 刚从源站获取或校验通过，重新计算过期时间：优先使用源站Cache-Control/Expires给出的有效期，
+     * 没有时使用站点的默认有效期（页面和静态资源分别配置），最后按站点的上下限调整
+     */
+    public void refresh(Site site) {
+        fetchedAt = System.currentTimeMillis();
+        // 毫秒，-1表示不过期
+        long lifetime = originLifetime(site);
+        if (lifetime < 0) {
+            Integer ttl = isHtml() && positive(site.getHtmlCacheTtl()) ? site.getHtmlCacheTtl() : site.getCacheTtl();
+            lifetime = positive(ttl) ? ttl * 1000L : -1;
+        }
+        if (positive(site.getCacheMinTtl()) && lifetime >= 0) {
+            lifetime = Math.max(lifetime, site.getCacheMinTtl() * 1000L);
+        }
+        if (positive(site.getCacheMaxTtl()) && (lifetime < 0 || lifetime > site.getCacheMaxTtl() * 1000L)) {
+            lifetime = site.getCacheMaxTtl() * 1000L;
+        }
+        expiresAt = lifetime >= 0 ? fetchedAt + lifetime : 0;
+    }
+
+    /**
+     * 源站返回304：用其中新的响应头更新记录的响应头，再重新计算过期时间
+     */
+    public void refresh(HttpResponse notModified, Site site) {
+        Map<String, String> updated = new LinkedHashMap<>(headers);
+        for (String name : REPLAYED_HEADERS) {
+            String value = headerValue(notModified, name);
+            if (value != null) {
+                updated.put(name, value);
+            }
+        }
+        setHeaders(updated);
+        refresh(site);
+    }
+
+    /**
+     * 源站给出的有效期（毫秒）：s-maxage优先于max-age，其次是Expires；都没有时返回-1。
+     * no-store/no-cache/private只在站点选择遵循时视为立即过期，否则忽略源站的有效期，
+     * 返回-1按站点默认有效期缓存（动态页面普遍带这些指令，升级前也是这样处理的）
+     */
+    private long originLifetime(Site site) {
+        String cacheControl = headers.get("Cache-Control");
+        if (cacheControl != null) {
+            long maxAge = -1;
+            long sharedMaxAge = -1;
+            for (String directive : cacheControl.split(",")) {
+                String[] parts = directive.trim().split("=", 2);
+                String name = parts[0].trim().toLowerCase();
+                if (name.equals("no-store") || name.equals("no-cache") || name.equals("private")) {
+                    return site.getHonorNoCache() != null && site.getHonorNoCache() == 1 ? 0 : -1;
+                }
+                if (parts.length == 2 && name.equals("s-maxage")) {
+                    sharedMaxAge = parseSeconds(parts[1]);
+                } else if (parts.length == 2 && name.equals("max-age") && maxAge < 0) {
+                    maxAge = parseSeconds(parts[1]);
+                }
+            }
+            if (sharedMaxAge >= 0) {
+                return sharedMaxAge;
+            }
+            if (maxAge >= 0) {
+                return maxAge;
+            }
+        }
+        String expires = headers.get("Expires");
+        if (expires != null) {
+            Date date = DateUtils.parseDate(expires);
+            // 无法解析的Expires（如"0"）表示已过期
+            return date != null ? Math.max(0, date.getTime() - fetchedAt) : 0;
+        }
+        return -1;
+    }
+
+    /**
+     * 源站要求不保存（Cache-Control: no-store），这类响应只转发给客户端，不写入缓存
+     */
+    public boolean isNoStore() {
+        String cacheControl = headers.get("Cache-Control");
+        if (cacheControl == null) {
+            return false;
+        }
+        for (String directive : cacheControl.split(",")) {
+            if (directive.trim().split("=", 2)[0].trim().equalsIgnoreCase("no-store")) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * 指令中的秒数转换为毫秒，无效时返回-1
+     */
+    private static long parseSeconds(String value) {
+        try {
+            return Math.max(0, Long.parseLong(value.trim().replace("\"", ""))) * 1000L;
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * 源站类型为页面，未记录类型时按页面处理
+     */
+    public boolean isHtml() {
+        return FetchedPage.isHtml(contentType);
+    }
+
+    private static boolean positive(Integer value) {
+        return value != null && value > 0;
+    }
+
+    public CacheMeta copy() {
+        CacheMeta copy = new CacheMeta();
+        copy.setFetchedAt(fetchedAt);
+        copy.setExpiresAt(expiresAt);
+        copy.setEtag(etag);
+        copy.setLastModified(lastModified);
+        copy.setStatus(status);
+        copy.setContentType(contentType);
+        copy.setCharset(charset);
+        // headers不可修改，可以共享
+        copy.headers = headers;
+        copy.setRuleVersion(ruleVersion);
+        return copy;
+    }
+
+    public void setHeaders(Map<String, String> headers) {
+        this.headers = headers == null || headers.isEmpty()
+                ? Collections.emptyMap() : Collections.unmodifiableMap(new LinkedHashMap<>(headers));
+    }
+
+    /**
+     * 命中时返回的Content-Type：有源站类型时使用源站类型，否则使用defaultType；记录了字符集时以记录的为准
+     */
+    public String resolveContentType(String defaultType) {
+        if (contentType == null && charset == null) {
+            return defaultType;
+        }
+        String type = contentType;
+        if (type == null) {
+            int semicolon = defaultType.indexOf(';');
+            type = semicolon >= 0 ? defaultType.substring(0, semicolon) : defaultType;
+        }
+        return charset != null ? type + ";charset=" + charset : type;
+    }
+
+    public boolean isFresh(long now) {
+        return expiresAt == 0 || now < expiresAt;
+    }
+
+    /**
+     * 过期后仍在站点允许的窗口内
+     */
+    public boolean isUsableStale(long now, Integer windowSeconds) {
+        return windowSeconds != null && windowSeconds > 0 && now < expiresAt + windowSeconds * 1000L;
+    }
+
+    /**
+     * 是否有可用于条件请求的校验值
+     */
+    public boolean hasValidator() {
+        return etag != null || lastModified != null;
+    }
+
+    public void writeTo(DataOutput out) throws IOException {
+        out.writeByte(VERSION);
+        out.writeLong(fetchedAt);
+        out.writeLong(expiresAt);
+        writeString(out, etag);
+        writeString(out, lastModified);
+        out.writeShort(status);
+        writeString(out, contentType);
+        writeString(out, charset);
+        out.writeByte(headers.size());
+        for (Map.Entry<String, String> header : headers.entrySet()) {
+            out.writeUTF(header.getKey());
+            out.writeUTF(header.getValue());
+        }
+        out.writeLong(ruleVersion);
+    }
+
+    public static CacheMeta readFrom(DataInput in) throws IOException {
+        int version = in.readByte();
+        if (version < 1 || version > VERSION) {
+            throw new IOException("不支持的缓存元数据版本: " + version);
+        }
+        CacheMeta meta = new CacheMeta();
+        meta.setFetchedAt(in.readLong());
+        if (version >= 2) {
+            meta.setExpiresAt(in.readLong());
+        }
+        meta.setEtag(readString(in));
+        meta.setLastModified(readString(in));
+        if (version >= 3) {
+            meta.setStatus(in.readShort());
+            meta.setContentType(readString(in));
+            meta.setCharset(readString(in));
+            int count = in.readUnsignedByte();
+            Map<String, String> headers = new LinkedHashMap<>();
+            for (int i = 0; i < count; i++) {
+                headers.put(in.readUTF(), in.readUTF());
+            }
+            meta.setHeaders(headers);
+        }
+        if (version >= 4) {
+            meta.setRuleVersion(in.readLong());
+        }
+        return meta;
+    }
+
+    private static String headerValue(HttpResponse response, String name) {
+        Header header = response.getFirstHeader(name);
+        return header != null ? header.getValue() : null;
+    }
+
+    private static void writeString(DataOutput out, String value) throws IOException {
+        out.writeBoolean(value != null);
+        if (value != null) {
+            out.writeUTF(value);
+        }
+    }
+
+    private static String readString(DataInput in) throws IOException {
+        return in.readBoolean() ? in.readUTF() : null;
+    }
+}
@@ -5,11 +5,21 @@ import org.springframework.stereotype.Component;
 import java.io.*;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Optional;
+import java.util.Set;
+import java.util.zip.GZIPOutputStream;
 
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
+import com.site.config.ProxyConfig;
 import com.site.entity.Site;
+import org.springframework.util.DigestUtils;
+import java.nio.channels.Channels;
 import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
 import java.nio.MappedByteBuffer;
 import java.nio.ByteBuffer;
 
@@ -18,28 +28,262 @@ import java.nio.ByteBuffer;
 @RequiredArgsConstructor
 public class CacheUtil {
 
-    private static final String CACHE_DIR = "cache";
+    static final String CACHE_DIR = "cache";
+    // 附属文件后缀使用#，缓存key中的#会被替换为_，不会与真实资源冲突
+    static final String META_SUFFIX = "#meta";
+    static final String GZIP_SUFFIX = "#gz";
+    // 页面的关键字替换结果，作为独立条目保存，有自己的元数据和gzip副本
+    static final String REWRITE_SUFFIX = "#kw";
+    private static final int READ_CHUNK_SIZE = 64 * 1024;
+    // 写入时预先生成gzip副本的文本类型
+    private static final Set<String> COMPRESSIBLE_EXTENSIONS = new HashSet<>(Arrays.asList(
+            ".html", ".htm", ".css", ".js", ".json", ".xml", ".txt", ".svg"));
 
-    public void put(String key, String value, Site site) {
+    private final MemoryCache memoryCache;
+    private final CacheIndex cacheIndex;
+    private final CacheWriter cacheWriter;
+    private final PackStore packStore;
+    private final ProxyConfig proxyConfig;
+
+    /**
+     * 提交页面缓存写入，由后台写入线程落盘，调用方不等待；内容为源站原始字节，不做转码
+     */
+    public void put(String key, byte[] content, Site site) {
+        Path target = Paths.get(getFilePath(key, site));
+        cacheWriter.submit(target, () -> {
+            writeFile(target, content, true);
+            log.info("缓存已保存到: {}", target);
+        });
+    }
+
+    public void putBytes(String key, byte[] value, Site site) {
+        Path target = Paths.get(getFilePath(key, site));
+        cacheWriter.submit(target, () -> {
+            writeFile(target, value, isCompressible(target));
+            log.info("二进制文件已缓存: {}", target);
+        });
+    }
+
+    private void writeFile(Path target, byte[] content, boolean withGzipVariant) throws IOException {
+        try (Sink sink = openSink(target, withGzipVariant)) {
+            sink.write(content, 0, content.length);
+            sink.commit();
+        }
+    }
+
+    /**
+     * 打开缓存写入流：内容先写入同目录下的临时文件（pack引擎下小对象先写入内存），
+     * commit时原子替换到正式路径或追加到段文件，读取方不会看到写了一半的内容
+     */
+    public Sink openSink(String key, Site site) throws IOException {
+        Path target = Paths.get(getFilePath(key, site));
+        return openSink(target, isCompressible(target));
+    }
+
+    private Sink openSink(Path target, boolean withGzipVariant) throws IOException {
+        return new Sink(target, withGzipVariant);
+    }
+
+    /**
+     * 查找条目的gzip副本，副本比原文件旧（原文件已更新、副本尚未生成）时视为不存在
+     */
+    public CacheEntry lookupGzip(CacheEntry entry) {
+        if (cacheIndex.isReady()) {
+            CacheIndex.Entry indexed = cacheIndex.get(entry.getPath());
+            return indexed != null && indexed.getEntry().equals(entry) ? indexed.getGzip() : null;
+        }
+        Path gzipPath = Paths.get(entry.getPath() + GZIP_SUFFIX);
+        PackStore.Location packed = packStore.get(gzipPath);
+        if (packed != null) {
+            return packed.getLastModified() < entry.getLastModified()
+                    ? null : new CacheEntry(gzipPath, packed.getLength(), entry.getLastModified(), "gzip");
+        }
         try {
-            String filePath = getFilePath(key, site);
-            createDirectories(filePath);
-            Files.write(Paths.get(filePath), value.getBytes(StandardCharsets.UTF_8));
-            log.info("缓存已保存到: {}", filePath);
+            BasicFileAttributes attributes = Files.readAttributes(gzipPath, BasicFileAttributes.class);
+            long lastModified = attributes.lastModifiedTime().toMillis();
+            if (lastModified < entry.getLastModified()) {
+                return null;
+            }
+            return new CacheEntry(gzipPath, attributes.size(), entry.getLastModified(), "gzip");
+        } catch (NoSuchFileException e) {
+            return null;
         } catch (IOException e) {
-            log.error("保存缓存文件失败", e);
+            log.warn("读取gzip副本属性失败: {}", gzipPath, e);
+            return null;
         }
     }
 
-    public void putBytes(String key, byte[] value, Site site) {
+    public boolean isCompressible(Path path) {
+        String name = path.getFileName().toString().toLowerCase();
+        int dot = name.lastIndexOf('.');
+        return dot >= 0 && COMPRESSIBLE_EXTENSIONS.contains(name.substring(dot));
+    }
+
+    /**
+     * 在原文件旁生成gzip副本，同样先写临时文件再原子替换
+     */
+    private void writeGzipVariant(Path source) throws IOException {
+        try (Sink sink = openSink(Paths.get(source + GZIP_SUFFIX), false)) {
+            PackStore.Location packed = packStore.get(source);
+            try (InputStream in = packed != null ? new ByteArrayInputStream(toArray(packStore.read(packed)))
+                    : Files.newInputStream(source);
+                 GZIPOutputStream gzip = new GZIPOutputStream(sink.stream(), 8192)) {
+                in.transferTo(gzip);
+                gzip.finish();
+            }
+            sink.commit();
+        } catch (NoSuchFileException e) {
+            // 原文件已被替换或删除，新内容发布时会重新生成
+            log.debug("生成gzip副本时原文件不存在: {}", source);
+        }
+    }
+
+    /**
+     * 读取缓存条目的源站元数据，不存在或损坏时返回null
+     */
+    public CacheMeta readMeta(String key, Site site) {
+        return readMeta(Paths.get(getFilePath(key, site)));
+    }
+
+    /**
+     * 读取缓存条目对应的源站元数据，命中时用于回放源站响应头
+     */
+    public CacheMeta readMeta(CacheEntry entry) {
+        return readMeta(entry.getPath());
+    }
+
+    private CacheMeta readMeta(Path path) {
+        // 元数据随索引条目保存，只在第一次使用时读取磁盘
+        Path metaPath = path.resolveSibling(path.getFileName() + META_SUFFIX);
+        CacheIndex.Entry indexed = cacheIndex.get(path);
+        if (indexed != null) {
+            Optional<CacheMeta> cached = indexed.getMeta().get();
+            if (cached == null) {
+                indexed.getMeta().compareAndSet(null, Optional.ofNullable(readMetaFile(metaPath)));
+                cached = indexed.getMeta().get();
+            }
+            return cached.map(CacheMeta::copy).orElse(null);
+        }
+        return readMetaFile(metaPath);
+    }
+
+    private CacheMeta readMetaFile(Path metaPath) {
+        PackStore.Location packed = packStore.get(metaPath);
+        if (packed != null) {
+            try {
+                return CacheMeta.readFrom(new DataInputStream(new ByteArrayInputStream(toArray(packStore.read(packed)))));
+            } catch (IOException e) {
+                log.warn("读取缓存元数据失败: {}", metaPath, e);
+                return null;
+            }
+        }
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(metaPath)))) {
+            return CacheMeta.readFrom(in);
+        } catch (NoSuchFileException e) {
+            return null;
+        } catch (IOException e) {
+            log.warn("读取缓存元数据失败: {}", metaPath, e);
+            return null;
+        }
+    }
+
+    /**
+     * 保存缓存条目的源站元数据，同样先写临时文件再原子替换
+     */
+    public void writeMeta(String key, Site site, CacheMeta meta) {
+        String filePath = getFilePath(key, site);
+        byte[] content = serialize(meta, filePath);
+        if (content == null) {
+            return;
+        }
+        // 索引中的元数据立即生效，文件由后台写入
+        setIndexedMeta(Paths.get(filePath), meta);
+        Path metaPath = Paths.get(filePath + META_SUFFIX);
+        cacheWriter.submit(metaPath, () -> writeFile(metaPath, content, false));
+    }
+
+    private byte[] serialize(CacheMeta meta, Object target) {
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream(128);
         try {
-            String filePath = getFilePath(key, site);
-            createDirectories(filePath);
-            Files.write(Paths.get(filePath), value);
-            log.info("二进制文件已缓存: {}", filePath);
+            meta.writeTo(new DataOutputStream(buffer));
+            return buffer.toByteArray();
         } catch (IOException e) {
-            log.error("保存二进制文件失败", e);
+            log.error("序列化缓存元数据失败: {}", target, e);
+            return null;
+        }
+    }
+
+    private void setIndexedMeta(Path path, CacheMeta meta) {
+        CacheIndex.Entry indexed = cacheIndex.get(path);
+        if (indexed != null) {
+            indexed.getMeta().set(Optional.of(meta.copy()));
+        }
+    }
+
+    /**
+     * 查找页面的关键字替换结果，比页面旧（页面已更新）时视为不存在；
+     * 结果对应的规则版本记录在它的元数据中，由调用方比较
+     */
+    public CacheEntry lookupRewritten(CacheEntry entry) {
+        Path path = Paths.get(entry.getPath() + REWRITE_SUFFIX);
+        CacheEntry rewritten;
+        CacheIndex.Entry indexed = cacheIndex.get(path);
+        if (indexed != null) {
+            indexed.touch();
+            rewritten = indexed.getEntry();
+        } else if (cacheIndex.isReady()) {
+            return null;
+        } else {
+            try {
+                rewritten = currentEntry(path);
+            } catch (NoSuchFileException e) {
+                return null;
+            } catch (IOException e) {
+                log.warn("读取替换结果属性失败: {}", path, e);
+                return null;
+            }
+        }
+        return rewritten != null && rewritten.getLastModified() >= entry.getLastModified() ? rewritten : null;
+    }
+
+    /**
+     * 保存页面的关键字替换结果，meta中记录生成时的规则版本。
+     * 内容发布后再更新元数据，并发读取最多看到新内容和旧版本号，只会多生成一次
+     */
+    public void putRewritten(CacheEntry entry, byte[] content, CacheMeta meta) {
+        Path target = Paths.get(entry.getPath() + REWRITE_SUFFIX);
+        Path metaPath = Paths.get(target + META_SUFFIX);
+        byte[] metaContent = serialize(meta, target);
+        if (metaContent == null) {
+            return;
         }
+        cacheWriter.submit(target, () -> {
+            writeFile(target, content, true);
+            setIndexedMeta(target, meta);
+            writeFile(metaPath, metaContent, false);
+        });
+    }
+
+    /**
+     * 返回条目的新鲜度信息，永不过期时返回null。
+     * 过期时间在写入元数据时已按源站响应头和站点策略算好；没有过期时间的条目按站点当前的默认有效期处理
+     */
+    public CacheMeta readFreshness(String key, Site site, CacheEntry entry) {
+        CacheMeta meta = readMeta(key, site);
+        if (meta != null && meta.getExpiresAt() != 0) {
+            return meta;
+        }
+        Integer ttl = site.getCacheTtl();
+        if (ttl == null || ttl <= 0) {
+            return null;
+        }
+        if (meta == null) {
+            // 没有元数据的旧缓存以文件修改时间作为获取时间
+            meta = new CacheMeta();
+            meta.setFetchedAt(entry.getLastModified());
+        }
+        meta.setExpiresAt(meta.getFetchedAt() + ttl * 1000L);
+        return meta;
     }
 
     private void createDirectories(String filePath) throws IOException {
@@ -52,15 +296,257 @@ public class CacheUtil {
         }
     }
 
-    public byte[] getBytes(String key, Site site) {
+    /**
+     * key对应的缓存文件路径，供缓存任务按文件跟踪条目
+     */
+    public Path pathOf(String key, Site site) {
+        return Paths.get(getFilePath(key, site));
+    }
+
+    /**
+     * 站点的缓存目录
+     */
+    public Path siteDirectory(Site site) {
+        return Paths.get(CACHE_DIR, siteNamespace(site)).toAbsolutePath();
+    }
+
+    /**
+     * 条目是否仍在缓存中，不计入访问，也不迁移旧版布局的文件
+     */
+    public boolean contains(String key, Site site) {
+        Path path = pathOf(key, site);
+        if (cacheIndex.get(path) != null) {
+            return true;
+        }
+        if (cacheIndex.isReady()) {
+            return false;
+        }
+        return packStore.get(path) != null || Files.exists(path);
+    }
+
+    /**
+     * 删除条目及其附属文件和关键字替换结果，用于源站改为不允许保存（no-store）的内容
+     */
+    public void remove(String key, Site site) {
+        Path path = pathOf(key, site);
+        CacheIndex.Entry indexed = cacheIndex.get(path);
+        if (indexed != null) {
+            evict(path, indexed);
+            return;
+        }
+        if (cacheIndex.isReady()) {
+            return;
+        }
         try {
-            String filePath = getFilePath(key, site);
-            Path path = Paths.get(filePath);
-            if (!Files.exists(path)) {
-                return null;
+            deleteWithSidecars(path);
+            deleteWithSidecars(path.resolveSibling(path.getFileName() + REWRITE_SUFFIX));
+        } catch (IOException e) {
+            log.warn("删除缓存文件失败: {}", path, e);
+        }
+    }
+
+    /**
+     * 查询缓存条目，只读取文件属性不读取内容
+     */
+    public CacheEntry lookup(String key, Site site) {
+        Path path = Paths.get(getFilePath(key, site));
+        CacheIndex.Entry indexed = cacheIndex.get(path);
+        if (indexed != null) {
+            indexed.touch();
+            return indexed.getEntry();
+        }
+        if (cacheIndex.isReady() && !mayHaveLegacyFile(key, site)) {
+            // 索引中没有即未命中，不访问文件系统
+            return null;
+        }
+        try {
+            return currentEntry(path);
+        } catch (NoSuchFileException e) {
+            if (migrateLegacy(key, site, path)) {
+                try {
+                    return readEntry(path);
+                } catch (IOException ignore) {
+                    // 迁移后又被删除，按未命中处理
+                }
+            }
+            return null;
+        } catch (IOException e) {
+            log.error("读取缓存文件属性失败: {}", key, e);
+            return null;
+        }
+    }
+
+    /**
+     * 文件写入缓存目录后同步索引并使内存层中的旧内容失效
+     */
+    private void published(Path path) {
+        if (!cacheIndex.published(path)) {
+            // 生成gzip副本期间原文件被淘汰
+            try {
+                Files.deleteIfExists(path);
+            } catch (IOException e) {
+                log.warn("删除缓存文件失败: {}", path, e);
+            }
+        }
+        memoryCache.invalidate(path);
+    }
+
+    /**
+     * 对象追加到段文件后同步索引，主文件已被淘汰的gzip副本从段文件中删除
+     */
+    private void publishedPacked(Path path, PackStore.Location location) {
+        if (!cacheIndex.published(path, location.getLength(), location.getLastModified())) {
+            try {
+                packStore.remove(path);
+            } catch (IOException e) {
+                log.warn("删除缓存文件失败: {}", path, e);
+            }
+        }
+        memoryCache.invalidate(path);
+    }
+
+    /**
+     * 容量淘汰：删除条目的文件及附属文件并移出索引和内存层。
+     * 文件在选中后被重新写入（与索引中的不一致）时放弃，返回释放的字节数
+     */
+    public long evict(Path path, CacheIndex.Entry indexed) {
+        CacheEntry entry = indexed.getEntry();
+        try {
+            CacheEntry current = currentEntry(path);
+            if (current == null || !current.equals(entry)) {
+                return 0;
+            }
+        } catch (NoSuchFileException e) {
+            // 文件已不存在，只需清理索引
+        } catch (IOException e) {
+            log.warn("读取缓存文件属性失败，跳过淘汰: {}", path, e);
+            return 0;
+        }
+        long freed = indexed.footprint();
+        if (!cacheIndex.remove(path, indexed)) {
+            return 0;
+        }
+        // 关键字替换结果依附于页面，随页面一起淘汰，否则页面淘汰后仍会留下并被读取
+        Path rewritten = path.resolveSibling(path.getFileName() + REWRITE_SUFFIX);
+        CacheIndex.Entry indexedRewritten = cacheIndex.get(rewritten);
+        if (indexedRewritten != null && cacheIndex.remove(rewritten, indexedRewritten)) {
+            freed += indexedRewritten.footprint();
+        }
+        try {
+            // 先删主文件，避免出现只有附属文件的条目
+            deleteWithSidecars(path);
+            deleteWithSidecars(rewritten);
+        } catch (IOException e) {
+            log.warn("删除缓存文件失败: {}", path, e);
+        }
+        return freed;
+    }
+
+    /**
+     * 删除文件及其gzip副本和元数据，包括段文件中的对象和内存层
+     */
+    private void deleteWithSidecars(Path path) throws IOException {
+        Path gzip = path.resolveSibling(path.getFileName() + GZIP_SUFFIX);
+        Path meta = path.resolveSibling(path.getFileName() + META_SUFFIX);
+        memoryCache.invalidate(path);
+        memoryCache.invalidate(gzip);
+        if (packStore.isEnabled()) {
+            packStore.remove(path);
+            packStore.remove(gzip);
+            packStore.remove(meta);
+        }
+        Files.deleteIfExists(path);
+        Files.deleteIfExists(gzip);
+        Files.deleteIfExists(meta);
+    }
+
+    /**
+     * 当前的条目信息：段文件中的对象优先，其次是单独的文件
+     */
+    private CacheEntry currentEntry(Path path) throws IOException {
+        PackStore.Location packed = packStore.get(path);
+        if (packed != null) {
+            return new CacheEntry(path, packed.getLength(), packed.getLastModified(), null);
+        }
+        return readEntry(path);
+    }
+
+    /**
+     * 条目内容是否保存在段文件中，这类条目没有可供sendfile使用的文件
+     */
+    public boolean isPacked(CacheEntry entry) {
+        return packStore.get(entry.getPath()) != null;
+    }
+
+    /**
+     * 段文件中与条目大小一致的内容，不在段文件中时返回null
+     */
+    private ByteBuffer readPacked(CacheEntry entry) {
+        PackStore.Location packed = packStore.get(entry.getPath());
+        return packed != null && packed.getLength() == entry.getSize() ? packStore.read(packed) : null;
+    }
+
+    private static byte[] toArray(ByteBuffer buffer) {
+        byte[] data = new byte[buffer.remaining()];
+        buffer.duplicate().get(data);
+        return data;
+    }
+
+    private CacheEntry readEntry(Path path) throws IOException {
+        BasicFileAttributes attributes = Files.readAttributes(path, BasicFileAttributes.class);
+        if (!attributes.isRegularFile()) {
+            return null;
+        }
+        return new CacheEntry(path, attributes.size(), attributes.lastModifiedTime().toMillis(), null);
+    }
+
+    public byte[] getBytes(String key, Site site) {
+        CacheEntry entry = lookup(key, site);
+        return entry != null ? getBytes(entry) : null;
+    }
+
+    /**
+     * 条目大小不超过内存层单条上限时，内容会放入内存，之后的读取不再访问磁盘
+     */
+    public boolean fitsInMemory(CacheEntry entry) {
+        return memoryCache.fits(entry.getSize());
+    }
+
+    /**
+     * 取得内存层中与条目一致的内容并增加引用，用完后必须release；不在内存层时返回null
+     */
+    public MemoryCache.Item retainInMemory(CacheEntry entry) {
+        MemoryCache.Item item = memoryCache.get(entry.getPath());
+        if (item != null && item.getEntry().equals(entry) && item.retain()) {
+            return item;
+        }
+        return null;
+    }
+
+    public byte[] getBytes(CacheEntry entry) {
+        MemoryCache.Item item = memoryCache.peek(entry.getPath());
+        if (item != null && item.getEntry().equals(entry)) {
+            byte[] content = item.toBytes();
+            if (content != null) {
+                return content;
             }
+        }
+        long generation = memoryCache.generation();
+        byte[] data = readBytes(entry);
+        if (data != null && data.length == entry.getSize()) {
+            memoryCache.put(entry, data, generation);
+        }
+        return data;
+    }
 
-            long fileSize = Files.size(path);
+    private byte[] readBytes(CacheEntry entry) {
+        ByteBuffer packed = readPacked(entry);
+        if (packed != null) {
+            return toArray(packed);
+        }
+        try {
+            Path path = entry.getPath();
+            long fileSize = entry.getSize();
             
             // 小文件（小于8KB）直接读取
             if (fileSize < 8192) {
@@ -80,26 +566,149 @@ public class CacheUtil {
                 return data;
             }
             
-            // 大文件使用零拷贝
+            // 大文件直接读入目标数组，按块读取避免JDK为整个文件分配临时直接内存；
+            // 需要输出给客户端的大文件应使用transfer，不经过这里
             try (FileChannel fileChannel = FileChannel.open(path, StandardOpenOption.READ)) {
-                ByteBuffer buffer = ByteBuffer.allocateDirect((int) fileSize);
+                byte[] data = new byte[(int) fileSize];
+                ByteBuffer buffer = ByteBuffer.wrap(data);
                 while (buffer.hasRemaining()) {
+                    buffer.limit(Math.min(buffer.capacity(), buffer.position() + READ_CHUNK_SIZE));
                     if (fileChannel.read(buffer) == -1) {
-                        break;
+                        return Arrays.copyOf(data, buffer.position());
                     }
                 }
-                buffer.flip();
-                byte[] data = new byte[buffer.limit()];
-                buffer.get(data);
                 return data;
             }
+        } catch (NoSuchFileException e) {
+            // 已被淘汰或在外部删除
+            cacheIndex.remove(entry.getPath());
+            return null;
         } catch (IOException e) {
-            log.error("读取二进制文件失败: {}", key, e);
+            log.error("读取二进制文件失败: {}", entry.getPath(), e);
             return null;
         }
     }
 
+    /**
+     * 把缓存文件的[position, position + count)区间写入输出流，由FileChannel.transferTo完成，
+     * 不需要把整个文件读入内存
+     */
+    public void transfer(CacheEntry entry, long position, long count, OutputStream out) throws IOException {
+        ByteBuffer packed = readPacked(entry);
+        if (packed != null) {
+            WritableByteChannel target = Channels.newChannel(out);
+            ByteBuffer region = packed.slice((int) position, (int) count);
+            while (region.hasRemaining()) {
+                target.write(region);
+            }
+            return;
+        }
+        try (FileChannel fileChannel = FileChannel.open(entry.getPath(), StandardOpenOption.READ)) {
+            WritableByteChannel target = Channels.newChannel(out);
+            long end = position + count;
+            while (position < end) {
+                long transferred = fileChannel.transferTo(position, end - position, target);
+                if (transferred <= 0) {
+                    throw new EOFException("缓存文件长度不足: " + entry.getPath());
+                }
+                position += transferred;
+            }
+        }
+    }
+
+    /**
+     * 缓存文件路径：cache/{站点}/{hash前2位}/{hash第3-4位}/{hash}{扩展名}。
+     * hash为规范化后请求路径的MD5，不同URL不会映射到同一文件，单个目录下的文件数也保持在较小范围；
+     * 保留原扩展名（无扩展名的页面使用.html），用于判断是否生成gzip副本
+     */
     private String getFilePath(String key, Site site) {
+        String requestPath = normalizeKey(key);
+        String hash = DigestUtils.md5DigestAsHex(requestPath.getBytes(StandardCharsets.UTF_8));
+        return Paths.get(CACHE_DIR, siteNamespace(site), hash.substring(0, 2), hash.substring(2, 4),
+                hash + extensionOf(requestPath)).toAbsolutePath().toString();
+    }
+
+    /**
+     * 去掉key中的协议和主机部分，只保留请求路径；同一站点通过不同域名访问时映射到同一文件
+     */
+    private String normalizeKey(String key) {
+        String requestPath = key.replaceFirst("^https?://[^/]+", "");
+        if (!requestPath.startsWith("/")) {
+            int slash = requestPath.indexOf('/');
+            requestPath = slash >= 0 ? requestPath.substring(slash) : "/";
+        }
+        return requestPath;
+    }
+
+    private String siteNamespace(Site site) {
+        return namespaceOf(site.getName());
+    }
+
+    /**
+     * 站点名对应的缓存目录名
+     */
+    public static String namespaceOf(String siteName) {
+        return siteName.replaceAll("[^a-zA-Z0-9.\\-]", "_");
+    }
+
+    private String extensionOf(String requestPath) {
+        String name = requestPath.substring(requestPath.lastIndexOf('/') + 1);
+        int dot = name.lastIndexOf('.');
+        if (dot >= 0 && name.length() - dot <= 10 && name.substring(dot + 1).matches("[a-zA-Z0-9]+")) {
+            return name.substring(dot).toLowerCase();
+        }
+        return ".html";
+    }
+
+    /**
+     * 旧版布局中存在该key的文件时，连同元数据和gzip副本一起移动到新路径
+     */
+    private boolean migrateLegacy(String key, Site site, Path target) {
+        if (!mayHaveLegacyFile(key, site)) {
+            return false;
+        }
+        Path legacy = Paths.get(getLegacyFilePath(key, site));
+        if (legacy.equals(target) || !Files.isRegularFile(legacy)) {
+            return false;
+        }
+        try {
+            createDirectories(target.toString());
+            // 先移动附属文件，主文件出现在新路径时附属文件已就位
+            for (String suffix : new String[]{META_SUFFIX, GZIP_SUFFIX}) {
+                Path sidecar = Paths.get(legacy + suffix);
+                if (Files.exists(sidecar)) {
+                    Files.move(sidecar, Paths.get(target + suffix), StandardCopyOption.REPLACE_EXISTING);
+                }
+            }
+            Files.move(legacy, target, StandardCopyOption.REPLACE_EXISTING);
+            published(target);
+            if (Files.exists(Paths.get(target + GZIP_SUFFIX))) {
+                published(Paths.get(target + GZIP_SUFFIX));
+            }
+            log.info("旧版缓存已迁移: {} -> {}", legacy, target);
+            return true;
+        } catch (NoSuchFileException e) {
+            // 其他请求已完成迁移
+            return Files.exists(target);
+        } catch (IOException e) {
+            log.warn("迁移旧版缓存失败: {}", legacy, e);
+            return false;
+        }
+    }
+
+    /**
+     * 旧版布局中可能有该key的文件。旧版按请求的主机建目录，通过别名或通配子域名访问的站点，
+     * 目录名与新布局的站点目录不同，因此按旧路径所在的目录判断
+     */
+    private boolean mayHaveLegacyFile(String key, Site site) {
+        return proxyConfig.isLegacyCacheMigration() && cacheIndex.hasLegacyFiles()
+                && cacheIndex.hasLegacyFiles(Paths.get(getLegacyFilePath(key, site)));
+    }
+
+    /**
+     * 旧版布局：按请求路径直接映射到cache目录下，仅用于迁移
+     */
+    private String getLegacyFilePath(String key, Site site) {
         try {
             // 移除协议和域名部分，只保留路径
             String relativePath = key.replaceFirst("^https?://[^/]+", "");
@@ -128,8 +737,150 @@ public class CacheUtil {
                     key.replaceAll("[^a-zA-Z0-9.]", "_")).getAbsolutePath();
         }
     }
+    /**
+     * 读取页面并按缓存时记录的字符集解码，只在需要解析页面时使用
+     */
     public String get(String key, Site site) {
-        byte[] data = getBytes(key, site);
-        return data != null ? new String(data, StandardCharsets.UTF_8) : null;
+        CacheEntry entry = lookup(key, site);
+        byte[] data = entry != null ? getBytes(entry) : null;
+        if (data == null) {
+            return null;
+        }
+        CacheMeta meta = readMeta(entry);
+        return new String(data, FetchedPage.detectCharset(data, meta != null ? meta.getCharset() : null));
+    }
+
+    /**
+     * 缓存写入器：内容写入临时文件，pack引擎下不超过对象上限的内容保留在内存中，commit时追加到段文件；
+     * 未commit即关闭时删除临时文件
+     */
+    public class Sink implements Closeable {
+        private final Path target;
+        private final boolean withGzipVariant;
+        // pack引擎下超过对象上限前的内容，转为临时文件后为null
+        private ByteArrayOutputStream pending;
+        private Path temp;
+        private FileChannel channel;
+        private OutputStream out;
+        private boolean committed;
+
+        private Sink(Path target, boolean withGzipVariant) throws IOException {
+            this.target = target;
+            this.withGzipVariant = withGzipVariant;
+            if (packStore.isEnabled()) {
+                this.pending = new ByteArrayOutputStream();
+            } else {
+                openTemp();
+            }
+        }
+
+        private void openTemp() throws IOException {
+            createDirectories(target.toString());
+            temp = Files.createTempFile(target.getParent(), target.getFileName().toString(), ".tmp");
+            channel = FileChannel.open(temp, StandardOpenOption.WRITE);
+            out = new BufferedOutputStream(Channels.newOutputStream(channel), 8192);
+        }
+
+        public void write(byte[] buffer, int offset, int length) throws IOException {
+            if (pending != null) {
+                if (packStore.accepts(pending.size() + (long) length)) {
+                    pending.write(buffer, offset, length);
+                    return;
+                }
+                openTemp();
+                pending.writeTo(out);
+                pending = null;
+            }
+            out.write(buffer, offset, length);
+        }
+
+        /**
+         * 已写入的内容刷新到临时文件，供正在读取的请求使用；内容仍在内存中时无操作
+         */
+        public void flush() throws IOException {
+            if (out != null) {
+                out.flush();
+            }
+        }
+
+        /**
+         * 临时文件路径，内容仍在内存中时为null
+         */
+        public Path tempFile() {
+            return temp;
+        }
+
+        /**
+         * 写入缓存内容的输出流，关闭它不会结束写入，仍需commit
+         */
+        public OutputStream stream() {
+            return new OutputStream() {
+                @Override
+                public void write(int b) throws IOException {
+                    Sink.this.write(new byte[]{(byte) b}, 0, 1);
+                }
+
+                @Override
+                public void write(byte[] buffer, int offset, int length) throws IOException {
+                    Sink.this.write(buffer, offset, length);
+                }
+            };
+        }
+
+        /**
+         * 按fsync策略落盘后原子替换到正式路径（或追加到段文件），gzip副本交给后台写入线程生成
+         */
+        public void commit() throws IOException {
+            if (pending != null) {
+                PackStore.Location location = packStore.put(target, pending.toByteArray());
+                committed = true;
+                // 之前以单独文件保存的旧内容
+                Files.deleteIfExists(target);
+                publishedPacked(target, location);
+            } else {
+                commitFile();
+            }
+            log.debug("缓存已发布到: {}", target);
+            if (withGzipVariant) {
+                cacheWriter.submit(Paths.get(target + GZIP_SUFFIX), () -> writeGzipVariant(target));
+            }
+        }
+
+        private void commitFile() throws IOException {
+            out.flush();
+            ProxyConfig.FsyncPolicy fsync = proxyConfig.getCacheFsync();
+            if (fsync != ProxyConfig.FsyncPolicy.NONE) {
+                channel.force(false);
+            }
+            out.close();
+            try {
+                Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING);
+            }
+            committed = true;
+            if (fsync == ProxyConfig.FsyncPolicy.FILE_AND_DIRECTORY) {
+                // 目录项也落盘，断电后重命名不会丢失
+                try (FileChannel dir = FileChannel.open(target.getParent(), StandardOpenOption.READ)) {
+                    dir.force(true);
+                }
+            }
+            // 之前保存在段文件中的旧内容
+            packStore.remove(target);
+            published(target);
+        }
+
+        @Override
+        public void close() {
+            if (committed || out == null) {
+                return;
+            }
+            try {
+                out.close();
+                Files.deleteIfExists(temp);
+            } catch (IOException e) {
+                log.warn("清理缓存临时文件失败: {}", temp, e);
+            }
+        }
     }
 }
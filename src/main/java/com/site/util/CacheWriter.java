@@ -0,0 +1,124 @@
+package com.site.util;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 缓存后台写入：请求线程只提交写入任务，由有界写入线程池落盘。
+ * 同一文件同时只有一个写入在执行，尚未开始的旧写入会被新写入替换；队列满时丢弃并计数
+ */
+@Slf4j
+@Component
+public class CacheWriter {
+
+    private final Executor executor;
+    private final Map<Path, PendingWrite> pending = new ConcurrentHashMap<>();
+    private final AtomicLong submitted = new AtomicLong();
+    private final AtomicLong coalesced = new AtomicLong();
+    private final AtomicLong written = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+
+    public CacheWriter(@Qualifier("cacheWriteExecutor") Executor executor) {
+        this.executor = executor;
+    }
+
+    @FunctionalInterface
+    public interface WriteTask {
+        void write() throws IOException;
+    }
+
+    /**
+     * 提交target的写入任务，同一target的任务按提交顺序生效
+     */
+    public void submit(Path target, WriteTask task) {
+        submitted.incrementAndGet();
+        PendingWrite[] created = new PendingWrite[1];
+        pending.compute(target, (key, existing) -> {
+            if (existing == null) {
+                created[0] = new PendingWrite(target, task);
+                return created[0];
+            }
+            if (existing.task != null) {
+                coalesced.incrementAndGet();
+            }
+            // 正在写入时由当前写入线程完成后接着执行
+            existing.task = task;
+            return existing;
+        });
+        if (created[0] == null) {
+            return;
+        }
+        try {
+            executor.execute(created[0]);
+        } catch (RejectedExecutionException e) {
+            pending.remove(target, created[0]);
+            dropped.incrementAndGet();
+            log.warn("缓存写入队列已满，丢弃写入: {}", target);
+        }
+    }
+
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("pending", pending.size());
+        if (executor instanceof ThreadPoolTaskExecutor) {
+            ThreadPoolTaskExecutor pool = (ThreadPoolTaskExecutor) executor;
+            stats.put("queueDepth", pool.getThreadPoolExecutor().getQueue().size());
+            stats.put("activeThreads", pool.getActiveCount());
+        }
+        stats.put("submitted", submitted.get());
+        stats.put("coalesced", coalesced.get());
+        stats.put("written", written.get());
+        stats.put("dropped", dropped.get());
+        stats.put("failed", failed.get());
+        return stats;
+    }
+
+    private class PendingWrite implements Runnable {
+        private final Path target;
+        // 由pending.compute保护
+        private WriteTask task;
+
+        private PendingWrite(Path target, WriteTask task) {
+            this.target = target;
+            this.task = task;
+        }
+
+        @Override
+        public void run() {
+            while (true) {
+                WriteTask[] next = new WriteTask[1];
+                pending.compute(target, (key, current) -> {
+                    if (current != this) {
+                        return current;
+                    }
+                    next[0] = task;
+                    task = null;
+                    // 没有新任务时移除，之后的提交会重新调度
+                    return next[0] != null ? this : null;
+                });
+                if (next[0] == null) {
+                    return;
+                }
+                try {
+                    next[0].write();
+                    written.incrementAndGet();
+                } catch (IOException | RuntimeException e) {
+                    failed.incrementAndGet();
+                    log.error("缓存写入失败: {}", target, e);
+                }
+            }
+        }
+    }
+}
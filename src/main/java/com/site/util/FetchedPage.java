@@ -0,0 +1,129 @@
+package com.site.util;
+
+import lombok.Getter;
+import org.apache.http.entity.ContentType;
+
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.Locale;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * 源站返回的页面原始字节和识别出的字符集。内容按字节缓存和输出，只有需要解析或改写时才解码
+ */
+@Getter
+public class FetchedPage {
+
+    // 与浏览器一致，只在开头1024字节内查找<meta>声明的字符集
+    private static final int META_SCAN_LIMIT = 1024;
+    private static final Pattern META_CHARSET = Pattern.compile(
+            "<meta[^>]+charset\\s*=\\s*[\"']?\\s*([A-Za-z0-9._:\\-]+)", Pattern.CASE_INSENSITIVE);
+
+    private final byte[] body;
+    // 源站返回的类型（不含参数），未返回时为null
+    private final String mimeType;
+    private final Charset charset;
+    // 回源时由CacheRefreshService设置，未命中直接输出时与命中时一样回放其中记录的源站响应头
+    private CacheMeta meta;
+
+    public FetchedPage(byte[] body, String mimeType, Charset charset) {
+        this.body = body;
+        this.mimeType = mimeType;
+        this.charset = charset;
+    }
+
+    /**
+     * 按源站Content-Type构造，字符集识别顺序：BOM、响应头、页面&lt;meta&gt;，都没有时按UTF-8处理
+     */
+    public static FetchedPage of(byte[] body, String contentType) {
+        String mimeType = null;
+        String declaredCharset = null;
+        if (contentType != null) {
+            try {
+                ContentType parsed = ContentType.parse(contentType);
+                mimeType = parsed.getMimeType();
+                declaredCharset = parsed.getCharset() != null ? parsed.getCharset().name() : null;
+            } catch (RuntimeException e) {
+                // 无法识别的字符集交给BOM和<meta>判断
+            }
+        }
+        return new FetchedPage(body, mimeType, detectCharset(body, declaredCharset));
+    }
+
+    /**
+     * declaredCharset为响应头或元数据中记录的字符集，可以为null
+     */
+    public static Charset detectCharset(byte[] body, String declaredCharset) {
+        Charset charset = fromBom(body);
+        if (charset == null) {
+            charset = forName(declaredCharset);
+        }
+        if (charset == null) {
+            String head = new String(body, 0, Math.min(body.length, META_SCAN_LIMIT), StandardCharsets.ISO_8859_1);
+            Matcher matcher = META_CHARSET.matcher(head);
+            if (matcher.find()) {
+                charset = forName(matcher.group(1));
+            }
+        }
+        return charset != null ? charset : StandardCharsets.UTF_8;
+    }
+
+    private static Charset fromBom(byte[] body) {
+        if (body.length >= 3 && (body[0] & 0xFF) == 0xEF && (body[1] & 0xFF) == 0xBB && (body[2] & 0xFF) == 0xBF) {
+            return StandardCharsets.UTF_8;
+        }
+        if (body.length >= 2 && (body[0] & 0xFF) == 0xFE && (body[1] & 0xFF) == 0xFF) {
+            return StandardCharsets.UTF_16BE;
+        }
+        if (body.length >= 2 && (body[0] & 0xFF) == 0xFF && (body[1] & 0xFF) == 0xFE) {
+            return StandardCharsets.UTF_16LE;
+        }
+        return null;
+    }
+
+    private static Charset forName(String name) {
+        if (name == null || name.isBlank()) {
+            return null;
+        }
+        String normalized = name.trim().toLowerCase(Locale.ROOT);
+        // 页面声明gb2312时实际常含GBK字符，浏览器同样按GBK解码
+        if (normalized.equals("gb2312") || normalized.equals("gb_2312-80") || normalized.equals("x-gbk")) {
+            normalized = "gbk";
+        }
+        try {
+            return Charset.forName(normalized);
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+
+    public void setMeta(CacheMeta meta) {
+        this.meta = meta;
+    }
+
+    /**
+     * 解码为字符串，仅在需要解析或改写页面时调用
+     */
+    public String text() {
+        return new String(body, charset);
+    }
+
+    /**
+     * 输出给客户端的Content-Type，字符集与原始字节一致
+     */
+    public String contentType() {
+        return (mimeType != null ? mimeType : "text/html") + ";charset=" + charset.name();
+    }
+
+    /**
+     * 源站未返回类型时按页面处理
+     */
+    public boolean isHtml() {
+        return isHtml(mimeType);
+    }
+
+    public static boolean isHtml(String mimeType) {
+        return mimeType == null || mimeType.equals("text/html") || mimeType.equals("application/xhtml+xml");
+    }
+}
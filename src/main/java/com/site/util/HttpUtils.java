@@ -1,73 +1,162 @@
 package com.site.util;
 
+import com.site.config.UpstreamProperties;
+import com.site.entity.Site;
 import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpHost;
+import org.apache.http.HttpResponse;
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.client.methods.HttpUriRequest;
+import org.apache.http.client.utils.URIUtils;
+import org.apache.http.conn.routing.HttpRoute;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.conn.DefaultSchemePortResolver;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.apache.http.pool.PoolStats;
+import org.apache.http.util.EntityUtils;
 import org.springframework.stereotype.Component;
-import java.io.BufferedReader;
-import java.io.InputStreamReader;
-import java.net.HttpURLConnection;
-import java.net.URL;
 import java.io.IOException;
-import java.util.List;
+import java.net.URI;
+import java.util.LinkedHashMap;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
 
+/**
+ * 源站请求统一入口，所有代理和缓存任务共用同一个连接池
+ */
+@Slf4j
 @Component
 @RequiredArgsConstructor
 public class HttpUtils {
-    
+
+    private final CloseableHttpClient httpClient;
+    private final PoolingHttpClientConnectionManager connectionManager;
+    private final UpstreamProperties upstreamProperties;
+
+    // 已设置过连接上限的路由
+    private final Map<HttpRoute, Integer> configuredRoutes = new ConcurrentHashMap<>();
+
     public String get(String urlStr) throws IOException {
-        URL url = new URL(urlStr);
-        HttpURLConnection conn = (HttpURLConnection) url.openConnection();
-        
-        try {
-            conn.setRequestMethod("GET");
-            // 设置请求头，模拟浏览器
-            conn.setRequestProperty("User-Agent", "Mozilla/5.0 (Windows NT 10.0; Win64; x64) AppleWebKit/537.36 (KHTML, like Gecko) Chrome/91.0.4472.124 Safari/537.36");
-            conn.setRequestProperty("Accept", "text/html,application/xhtml+xml,application/xml;q=0.9,image/webp,*/*;q=0.8");
-            conn.setRequestProperty("Accept-Language", "zh-CN,zh;q=0.9,en;q=0.8");
-            conn.setRequestProperty("Connection", "keep-alive");
-            conn.setRequestProperty("Cache-Control", "max-age=0");
-            
-            // 允许重定向
-            conn.setInstanceFollowRedirects(true);
-            conn.setConnectTimeout(10000);  // 10 seconds
-            conn.setReadTimeout(30000);     // 30 seconds
-            
-            // 获取响应码
-            int responseCode = conn.getResponseCode();
-            
-            // 处理重定向
-            if (responseCode == HttpURLConnection.HTTP_MOVED_TEMP || 
-                responseCode == HttpURLConnection.HTTP_MOVED_PERM || 
-                responseCode == HttpURLConnection.HTTP_SEE_OTHER) {
-                String newUrl = conn.getHeaderField("Location");
-                return get(newUrl);
+        return get(urlStr, null);
+    }
+
+    /**
+     * 获取页面并按识别出的字符集解码，只需要解析页面的调用方使用
+     */
+    public String get(String urlStr, Site site) throws IOException {
+        return fetch(urlStr, site, null).text();
+    }
+
+    /**
+     * 获取页面原始字节和字符集，responseHandler不为null时在读取内容前回调，用于记录源站响应头
+     */
+    public FetchedPage fetch(String urlStr, Site site, Consumer<HttpResponse> responseHandler) throws IOException {
+        HttpGet get = newBrowserGet(urlStr);
+
+        // 重定向由HttpClient自动处理
+        try (CloseableHttpResponse response = execute(get, site)) {
+            int responseCode = response.getStatusLine().getStatusCode();
+            HttpEntity entity = response.getEntity();
+            if (responseCode >= 400 || entity == null) {
+                EntityUtils.consume(entity);
+                throw new IOException("源站响应异常: " + responseCode + " " + urlStr);
             }
-            
-            // 读取响应
-            try (BufferedReader reader = new BufferedReader(
-                    new InputStreamReader(conn.getInputStream(), "UTF-8"))) {
-                StringBuilder response = new StringBuilder();
-                String line;
-                
-                while ((line = reader.readLine()) != null) {
-                    response.append(line).append("\n");
-                }
-                
-                return response.toString();
+            if (responseHandler != null) {
+                responseHandler.accept(response);
             }
-        } finally {
-            if (conn != null) {
-                conn.disconnect();
+            byte[] body = EntityUtils.toByteArray(entity);
+            return FetchedPage.of(body, entity.getContentType() != null ? entity.getContentType().getValue() : null);
+        }
+    }
+
+    /**
+     * 条件请求：带上缓存中记录的源站校验值，源站内容未变化时返回304
+     */
+    public CloseableHttpResponse getConditional(String urlStr, Site site, CacheMeta meta) throws IOException {
+        HttpGet get = newBrowserGet(urlStr);
+        if (meta != null) {
+            if (meta.getEtag() != null) {
+                get.setHeader("If-None-Match", meta.getEtag());
+            }
+            if (meta.getLastModified() != null) {
+                get.setHeader("If-Modified-Since", meta.getLastModified());
             }
         }
+        return execute(get, site);
+    }
+
+    private HttpGet newBrowserGet(String urlStr) {
+        HttpGet get = new HttpGet(urlStr);
+        // 设置请求头，模拟浏览器
+        get.setHeader("User-Agent", "Mozilla/5.0 (Windows NT 10.0; Win64; x64) AppleWebKit/537.36 (KHTML, like Gecko) Chrome/91.0.4472.124 Safari/537.36");
+        get.setHeader("Accept", "text/html,application/xhtml+xml,application/xml;q=0.9,image/webp,*/*;q=0.8");
+        get.setHeader("Accept-Language", "zh-CN,zh;q=0.9,en;q=0.8");
+        get.setHeader("Cache-Control", "max-age=0");
+        return get;
     }
-    
-    // 打印响应头，用于调试
-    private void printHeaders(HttpURLConnection conn) {
-        Map<String, List<String>> headers = conn.getHeaderFields();
-        System.out.println("Response Headers:");
-        for (Map.Entry<String, List<String>> entry : headers.entrySet()) {
-            System.out.println(entry.getKey() + ": " + entry.getValue());
+
+    /**
+     * 通过连接池执行请求，调用方负责关闭响应以归还连接
+     */
+    public CloseableHttpResponse execute(HttpUriRequest request, Site site) throws IOException {
+        applyRouteLimit(request.getURI(), site);
+        return httpClient.execute(request);
+    }
+
+    /**
+     * 按站点配置覆盖源站路由的最大连接数
+     */
+    private void applyRouteLimit(URI uri, Site site) {
+        if (site == null || site.getName() == null) {
+            return;
+        }
+        Integer max = upstreamProperties.getSiteMaxConnections().get(site.getName());
+        if (max == null) {
+            return;
+        }
+        HttpHost host = URIUtils.extractHost(uri);
+        if (host == null) {
+            return;
+        }
+        try {
+            // 与DefaultRoutePlanner保持一致：补全默认端口
+            if (host.getPort() <= 0) {
+                host = new HttpHost(host.getHostName(), DefaultSchemePortResolver.INSTANCE.resolve(host), host.getSchemeName());
+            }
+        } catch (Exception e) {
+            return;
+        }
+        HttpRoute route = new HttpRoute(host, null, "https".equalsIgnoreCase(host.getSchemeName()));
+        if (!max.equals(configuredRoutes.put(route, max))) {
+            connectionManager.setMaxPerRoute(route, max);
+            log.info("站点 {} 源站连接上限设置为: {}", site.getName(), max);
         }
     }
-} 
\ No newline at end of file
+
+    /**
+     * 连接池统计，按路由展开
+     */
+    public Map<String, Object> getPoolStats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("total", toMap(connectionManager.getTotalStats()));
+        Map<String, Object> routes = new LinkedHashMap<>();
+        for (HttpRoute route : connectionManager.getRoutes()) {
+            routes.put(route.getTargetHost().toURI(), toMap(connectionManager.getStats(route)));
+        }
+        stats.put("routes", routes);
+        return stats;
+    }
+
+    private Map<String, Object> toMap(PoolStats poolStats) {
+        Map<String, Object> map = new LinkedHashMap<>();
+        map.put("leased", poolStats.getLeased());
+        map.put("available", poolStats.getAvailable());
+        map.put("pending", poolStats.getPending());
+        map.put("max", poolStats.getMax());
+        return map;
+    }
+}
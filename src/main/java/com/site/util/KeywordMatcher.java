@@ -0,0 +1,361 @@
+package com.site.util;
+
+import com.site.entity.SiteTdk;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.StringWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Queue;
+
+/**
+ * 关键字替换自动机（Aho-Corasick），由站点启用的规则编译而成，编译后只读，可多线程共用。
+ * 一次线性扫描完成所有替换，匹配重叠时取起始位置最靠前的，起始位置相同时取最长的；
+ * 替换后的内容不再参与匹配
+ */
+public final class KeywordMatcher {
+
+    public static final KeywordMatcher EMPTY = new KeywordMatcher(new Node(0), 0, 0);
+
+    // 已输出的内容超过该长度时才从缓冲区中移除
+    private static final int COMPACT_THRESHOLD = 8192;
+
+    // FNV-1a
+    private static final long FINGERPRINT_BASIS = 0xcbf29ce484222325L;
+    private static final long FINGERPRINT_PRIME = 0x100000001b3L;
+
+    private final Node root;
+    private final int size;
+    private final long version;
+
+    private KeywordMatcher(Node root, int size, long version) {
+        this.root = root;
+        this.size = size;
+        this.version = version;
+    }
+
+    /**
+     * 编译启用的规则，原关键字为空的规则忽略，原关键字重复时先出现的规则生效
+     */
+    public static KeywordMatcher compile(Collection<SiteTdk> rules) {
+        Node root = new Node(0);
+        int size = 0;
+        long version = FINGERPRINT_BASIS;
+        for (SiteTdk rule : rules) {
+            String source = rule.getSourceWord();
+            if (!Integer.valueOf(1).equals(rule.getEnabled()) || source == null || source.isEmpty()) {
+                continue;
+            }
+            Node node = root;
+            for (int i = 0; i < source.length(); i++) {
+                int depth = i + 1;
+                node = node.next.computeIfAbsent(source.charAt(i), c -> new Node(depth));
+            }
+            if (node.replacement == null) {
+                node.replacement = rule.getTargetWord() != null ? rule.getTargetWord() : "";
+                size++;
+                version = fingerprint(fingerprint(version, source), node.replacement);
+            }
+        }
+        if (size == 0) {
+            return EMPTY;
+        }
+        // 按层构造失败指针，output指向自身或沿失败指针最近的规则结尾，即以当前位置结尾的最长关键字
+        Queue<Node> queue = new ArrayDeque<>();
+        root.fail = root;
+        for (Node child : root.next.values()) {
+            child.fail = root;
+            child.output = child.replacement != null ? child : null;
+            queue.add(child);
+        }
+        while (!queue.isEmpty()) {
+            Node node = queue.poll();
+            for (Map.Entry<Character, Node> edge : node.next.entrySet()) {
+                Node child = edge.getValue();
+                child.fail = root.transition(node.fail, edge.getKey());
+                child.output = child.replacement != null ? child : child.fail.output;
+                queue.add(child);
+            }
+        }
+        root.freeze();
+        return new KeywordMatcher(root, size, version);
+    }
+
+    /**
+     * 规则版本：由生效的规则内容计算，规则变化后重新编译即得到新版本，重启后保持不变。
+     * 用于判断缓存的替换结果是否由当前规则生成
+     */
+    public long getVersion() {
+        return version;
+    }
+
+    private static long fingerprint(long hash, String value) {
+        for (int i = 0; i < value.length(); i++) {
+            hash = (hash ^ value.charAt(i)) * FINGERPRINT_PRIME;
+        }
+        // 分隔相邻字段，避免"ab"+"c"与"a"+"bc"相同
+        return (hash ^ 0xFFFF) * FINGERPRINT_PRIME;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public String replace(String content) {
+        if (isEmpty() || content.isEmpty()) {
+            return content;
+        }
+        StringWriter out = new StringWriter(content.length());
+        try (Writer writer = wrap(out)) {
+            writer.write(content);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return out.toString();
+    }
+
+    /**
+     * 按charset解码、替换后重新编码，结果与原内容使用同一字符集
+     */
+    public byte[] replace(byte[] content, Charset charset) {
+        if (isEmpty()) {
+            return content;
+        }
+        ByteArrayOutputStream out = new ByteArrayOutputStream(content.length + 256);
+        try (Writer writer = new OutputStreamWriter(out, charset)) {
+            replace(new InputStreamReader(new ByteArrayInputStream(content), charset), writer);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * 从in读取、替换后写入out，不关闭两者
+     */
+    public void replace(Reader in, Writer out) throws IOException {
+        try (Writer writer = wrap(out)) {
+            char[] buffer = new char[8192];
+            int length;
+            while ((length = in.read(buffer)) != -1) {
+                writer.write(buffer, 0, length);
+            }
+        }
+    }
+
+    /**
+     * 包装输出流，写入的内容替换后写到out；只缓存可能构成关键字的末尾部分，
+     * flush只输出已确定的内容，close时输出剩余内容，不关闭out
+     */
+    public Writer wrap(Writer out) {
+        return isEmpty() ? new PassThrough(out) : new Session(out);
+    }
+
+    private static final class Node {
+        private static final char[] NO_KEYS = new char[0];
+        private static final Node[] NO_CHILDREN = new Node[0];
+
+        // 编译期间使用，编译完成后转为有序数组，扫描时二分查找，避免装箱
+        private Map<Character, Node> next = new HashMap<>(4);
+        private char[] keys = NO_KEYS;
+        private Node[] children = NO_CHILDREN;
+        private final int depth;
+        private Node fail;
+        private Node output;
+        // 以该节点结尾的规则的替换内容，不是规则结尾时为null
+        private String replacement;
+
+        private Node(int depth) {
+            this.depth = depth;
+        }
+
+        /**
+         * 从state读入c后的状态，在根节点上调用
+         */
+        private Node transition(Node state, char c) {
+            while (true) {
+                Node target = state.child(c);
+                if (target != null) {
+                    return target;
+                }
+                if (state == this) {
+                    return this;
+                }
+                state = state.fail;
+            }
+        }
+
+        private Node child(char c) {
+            if (next != null) {
+                return next.get(c);
+            }
+            int index = Arrays.binarySearch(keys, c);
+            return index >= 0 ? children[index] : null;
+        }
+
+        private void freeze() {
+            if (!next.isEmpty()) {
+                keys = new char[next.size()];
+                int i = 0;
+                for (char key : next.keySet()) {
+                    keys[i++] = key;
+                }
+                Arrays.sort(keys);
+                children = new Node[keys.length];
+                for (i = 0; i < keys.length; i++) {
+                    children[i] = next.get(keys[i]);
+                    children[i].freeze();
+                }
+            }
+            next = null;
+        }
+    }
+
+    private final class Session extends Writer {
+        private final Writer out;
+        // 尚未输出的内容，buffer[0]对应绝对位置base
+        private final StringBuilder buffer = new StringBuilder();
+        private long base;
+        // 已输出到out的位置
+        private long emitted;
+        // 下一个待扫描的位置
+        private long scan;
+        private Node state = root;
+        // 当前候选匹配[bestStart, bestEnd)，没有时bestStart为-1
+        private long bestStart = -1;
+        private long bestEnd;
+        private String bestReplacement;
+        private boolean closed;
+
+        private Session(Writer out) {
+            this.out = out;
+        }
+
+        @Override
+        public void write(char[] cbuf, int off, int len) throws IOException {
+            buffer.append(cbuf, off, len);
+            drain();
+        }
+
+        @Override
+        public void write(String str, int off, int len) throws IOException {
+            buffer.append(str, off, off + len);
+            drain();
+        }
+
+        private void drain() throws IOException {
+            long end = base + buffer.length();
+            while (scan < end) {
+                state = root.transition(state, buffer.charAt((int) (scan - base)));
+                scan++;
+                Node match = state.output;
+                if (match != null) {
+                    long start = scan - match.depth;
+                    if (bestStart < 0 || start < bestStart || (start == bestStart && scan > bestEnd)) {
+                        bestStart = start;
+                        bestEnd = scan;
+                        bestReplacement = match.replacement;
+                    }
+                }
+                // 之后的匹配起始位置都不早于当前状态对应的起点，不会再有更靠前或更长的匹配
+                if (bestStart >= 0 && scan - state.depth > bestStart) {
+                    commit();
+                }
+            }
+            // 当前状态对应的起点之前的内容已确定，未提交的候选匹配不会早于该起点
+            emit(scan - state.depth);
+            compact();
+        }
+
+        /**
+         * 输出候选匹配之前的内容和替换内容，从匹配结尾重新开始扫描
+         */
+        private void commit() throws IOException {
+            emit(bestStart);
+            out.write(bestReplacement);
+            emitted = bestEnd;
+            scan = bestEnd;
+            state = root;
+            bestStart = -1;
+        }
+
+        private void emit(long to) throws IOException {
+            if (to > emitted) {
+                out.write(buffer.substring((int) (emitted - base), (int) (to - base)));
+                emitted = to;
+            }
+        }
+
+        private void compact() {
+            if (emitted - base >= COMPACT_THRESHOLD) {
+                buffer.delete(0, (int) (emitted - base));
+                base = emitted;
+            }
+        }
+
+        @Override
+        public void flush() throws IOException {
+            out.flush();
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            // 输入已结束，剩余的候选匹配不会再变长
+            while (bestStart >= 0) {
+                commit();
+                drain();
+            }
+            emit(base + buffer.length());
+            buffer.setLength(0);
+            base = emitted;
+            out.flush();
+        }
+    }
+
+    private static final class PassThrough extends Writer {
+        private final Writer out;
+
+        private PassThrough(Writer out) {
+            this.out = out;
+        }
+
+        @Override
+        public void write(char[] cbuf, int off, int len) throws IOException {
+            out.write(cbuf, off, len);
+        }
+
+        @Override
+        public void write(String str, int off, int len) throws IOException {
+            out.write(str, off, len);
+        }
+
+        @Override
+        public void flush() throws IOException {
+            out.flush();
+        }
+
+        @Override
+        public void close() throws IOException {
+            out.flush();
+        }
+    }
+}
@@ -0,0 +1,230 @@
+package com.site.util;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.site.entity.SiteTdk;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Pattern;
+
+/**
+ * 站点关键字规则按页面范围建立的索引。规则的pageUrl为空时对全站生效，否则按路径模式限定页面：
+ * <ul>
+ *     <li>精确：/about.html</li>
+ *     <li>前缀：以*结尾且只有这一个*，如 /news/*，匹配该前缀下的所有页面</li>
+ *     <li>通配：其他含*的模式，*匹配一段路径中的任意字符（不跨/），**可跨/，如 /news/*&#47;detail.html</li>
+ * </ul>
+ * 模式按不含*的前缀放入字符trie，请求路径沿trie走一遍即可找出所有匹配的模式，只有挂在经过节点上的通配模式才需要正则判断。
+ * 匹配到的模式组合相同的页面共用一个合并编译的自动机
+ */
+public final class KeywordRuleIndex {
+
+    private static final int MAX_MATCHERS = 256;
+
+    private final KeywordMatcher globalMatcher;
+    private final List<SiteTdk> globalRules;
+    private final Node root = new Node();
+    private final int scopedRules;
+    // 按匹配到的模式组合缓存合并后的自动机
+    private final Cache<String, KeywordMatcher> matchers = Caffeine.newBuilder()
+            .maximumSize(MAX_MATCHERS)
+            .build();
+
+    private KeywordRuleIndex(List<SiteTdk> globalRules, int scopedRules) {
+        this.globalRules = globalRules;
+        this.globalMatcher = KeywordMatcher.compile(globalRules);
+        this.scopedRules = scopedRules;
+    }
+
+    public static KeywordRuleIndex build(List<SiteTdk> rules) {
+        List<SiteTdk> globalRules = new ArrayList<>();
+        Map<String, List<SiteTdk>> scoped = new LinkedHashMap<>();
+        for (SiteTdk rule : rules) {
+            String pattern = normalize(rule.getPageUrl());
+            if (pattern == null) {
+                globalRules.add(rule);
+            } else {
+                scoped.computeIfAbsent(pattern, key -> new ArrayList<>()).add(rule);
+            }
+        }
+        KeywordRuleIndex index = new KeywordRuleIndex(globalRules, rules.size() - globalRules.size());
+        int id = 0;
+        for (Map.Entry<String, List<SiteTdk>> entry : scoped.entrySet()) {
+            index.add(new Scope(id++, entry.getKey(), entry.getValue()));
+        }
+        return index;
+    }
+
+    /**
+     * 规则中的页面链接转为路径模式：去掉协议、主机、查询参数，为空时返回null（全站规则）
+     */
+    static String normalize(String pageUrl) {
+        // 管理页面曾把空值保存为字符串"null"，按全站规则处理
+        if (pageUrl == null || pageUrl.isBlank() || pageUrl.trim().equals("null")) {
+            return null;
+        }
+        String pattern = pageUrl.trim();
+        int scheme = pattern.indexOf("://");
+        if (scheme >= 0) {
+            int slash = pattern.indexOf('/', scheme + 3);
+            pattern = slash >= 0 ? pattern.substring(slash) : "/";
+        }
+        int query = indexOfAny(pattern, '?', '#');
+        if (query >= 0) {
+            pattern = pattern.substring(0, query);
+        }
+        return pattern.startsWith("/") || pattern.startsWith("*") ? pattern : "/" + pattern;
+    }
+
+    private static int indexOfAny(String value, char first, char second) {
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == first || c == second) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private void add(Scope scope) {
+        Node node = root;
+        for (int i = 0; i < scope.literal.length(); i++) {
+            node = node.next.computeIfAbsent(scope.literal.charAt(i), c -> new Node());
+        }
+        switch (scope.kind) {
+            case EXACT:
+                node.exact = scope;
+                break;
+            case PREFIX:
+                node.prefix = scope;
+                break;
+            default:
+                node.wildcards.add(scope);
+        }
+    }
+
+    /**
+     * 请求路径对应的自动机：全站规则加上所有匹配该路径的页面规则。
+     * 同一关键字以更具体的模式为准：精确优先，其次是不含*的字符更多的模式，全站规则最后
+     */
+    public KeywordMatcher matcherFor(String path) {
+        if (scopedRules == 0) {
+            return globalMatcher;
+        }
+        List<Scope> matched = match(path != null && !path.isEmpty() ? path : "/");
+        if (matched.isEmpty()) {
+            return globalMatcher;
+        }
+        matched.sort(Comparator.comparingInt((Scope scope) -> -scope.specificity).thenComparingInt(scope -> scope.id));
+        StringBuilder key = new StringBuilder();
+        for (Scope scope : matched) {
+            key.append(scope.id).append(',');
+        }
+        return matchers.get(key.toString(), signature -> {
+            List<SiteTdk> merged = new ArrayList<>();
+            for (Scope scope : matched) {
+                merged.addAll(scope.rules);
+            }
+            merged.addAll(globalRules);
+            return KeywordMatcher.compile(merged);
+        });
+    }
+
+    private List<Scope> match(String path) {
+        List<Scope> matched = new ArrayList<>(2);
+        Node node = root;
+        for (int i = 0; ; i++) {
+            if (node.prefix != null) {
+                matched.add(node.prefix);
+            }
+            for (Scope wildcard : node.wildcards) {
+                if (wildcard.regex.matcher(path).matches()) {
+                    matched.add(wildcard);
+                }
+            }
+            if (i == path.length()) {
+                if (node.exact != null) {
+                    matched.add(node.exact);
+                }
+                return matched;
+            }
+            node = node.next.get(path.charAt(i));
+            if (node == null) {
+                return matched;
+            }
+        }
+    }
+
+    public int getScopedRules() {
+        return scopedRules;
+    }
+
+    private enum Kind { EXACT, PREFIX, WILDCARD }
+
+    private static final class Node {
+        private final Map<Character, Node> next = new HashMap<>(4);
+        private final List<Scope> wildcards = new ArrayList<>(0);
+        private Scope exact;
+        private Scope prefix;
+    }
+
+    private static final class Scope {
+        private final int id;
+        private final List<SiteTdk> rules;
+        private final Kind kind;
+        // 第一个*之前的部分，决定模式在trie中的位置
+        private final String literal;
+        private final Pattern regex;
+        // 模式中不含*的字符数，越多越具体
+        private final int specificity;
+
+        private Scope(int id, String pattern, List<SiteTdk> rules) {
+            this.id = id;
+            this.rules = rules;
+            int star = pattern.indexOf('*');
+            if (star < 0) {
+                kind = Kind.EXACT;
+                literal = pattern;
+                regex = null;
+            } else if (star == pattern.length() - 1) {
+                kind = Kind.PREFIX;
+                literal = pattern.substring(0, star);
+                regex = null;
+            } else {
+                kind = Kind.WILDCARD;
+                literal = pattern.substring(0, star);
+                regex = toRegex(pattern);
+            }
+            specificity = kind == Kind.EXACT ? Integer.MAX_VALUE : pattern.replace("*", "").length();
+        }
+
+        private static Pattern toRegex(String pattern) {
+            StringBuilder regex = new StringBuilder();
+            int start = 0;
+            for (int i = 0; i < pattern.length(); i++) {
+                if (pattern.charAt(i) != '*') {
+                    continue;
+                }
+                if (i > start) {
+                    regex.append(Pattern.quote(pattern.substring(start, i)));
+                }
+                if (i + 1 < pattern.length() && pattern.charAt(i + 1) == '*') {
+                    regex.append(".*");
+                    i++;
+                } else {
+                    regex.append("[^/]*");
+                }
+                start = i + 1;
+            }
+            if (start < pattern.length()) {
+                regex.append(Pattern.quote(pattern.substring(start)));
+            }
+            return Pattern.compile(regex.toString());
+        }
+    }
+}
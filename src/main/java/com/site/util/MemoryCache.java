@@ -0,0 +1,266 @@
+package com.site.util;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.RemovalCause;
+import com.github.benmanes.caffeine.cache.stats.CacheStats;
+import com.site.config.ProxyConfig;
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 磁盘缓存前的内存热点层：以缓存文件路径为key，按字节数限制总大小，
+ * 由Caffeine的W-TinyLFU决定准入和淘汰。磁盘写入都经过CacheUtil，写入后在这里失效对应条目。
+ * 开启堆外模式时内容保存在OffHeapArena的直接内存页中，堆上只保留索引
+ */
+@Slf4j
+@Component
+public class MemoryCache {
+
+    // 每个条目除内容外的估算开销
+    private static final int ENTRY_OVERHEAD = 256;
+    private static final int ARENA_HEADROOM_ENTRIES = 4;
+
+    private final Cache<Path, Item> cache;
+    private final long maxEntrySize;
+    // 未开启堆外模式时为null
+    private final OffHeapArena arena;
+    private final Path cacheRoot = Paths.get(CacheUtil.CACHE_DIR).toAbsolutePath();
+    // 每次磁盘写入递增，读取磁盘期间发生过写入的内容不放入内存
+    private final AtomicLong generation = new AtomicLong();
+    private final Map<String, SiteStats> siteStats = new ConcurrentHashMap<>();
+
+    public MemoryCache(ProxyConfig proxyConfig) {
+        this.maxEntrySize = proxyConfig.getMemoryCacheMaxEntrySize();
+        if (proxyConfig.isMemoryCacheOffHeap()) {
+            // 淘汰在写入新条目之后发生，预留几个最大条目的空间给正在写入的内容
+            this.arena = new OffHeapArena(proxyConfig.getMemoryCacheMaxBytes() + maxEntrySize * ARENA_HEADROOM_ENTRIES);
+            log.info("内存缓存层使用堆外存储，容量: {} 字节", proxyConfig.getMemoryCacheMaxBytes());
+        } else {
+            this.arena = null;
+        }
+        this.cache = Caffeine.newBuilder()
+                .maximumWeight(proxyConfig.getMemoryCacheMaxBytes())
+                // 堆外模式下按占用的页计算，总权重与直接内存占用一致
+                .weigher((Path path, Item item) -> item.pages != null
+                        ? item.pages.length * OffHeapArena.PAGE_SIZE : item.content.length + ENTRY_OVERHEAD)
+                .removalListener((Path path, Item item, RemovalCause cause) -> {
+                    if (item != null) {
+                        statsFor(path).bytes.addAndGet(-item.length());
+                        item.release();
+                    }
+                })
+                // 在调用线程上完成淘汰，堆外页及时归还
+                .executor(Runnable::run)
+                .recordStats()
+                .build();
+    }
+
+    /**
+     * 查询内存中的条目并记录命中情况
+     */
+    public Item get(Path path) {
+        Item item = cache.getIfPresent(path);
+        SiteStats stats = statsFor(path);
+        if (item != null) {
+            stats.hits.incrementAndGet();
+        } else {
+            stats.misses.incrementAndGet();
+        }
+        return item;
+    }
+
+    /**
+     * 查询内存中的条目，不计入命中统计
+     */
+    public Item peek(Path path) {
+        return cache.asMap().get(path);
+    }
+
+    public boolean fits(long size) {
+        return size <= maxEntrySize;
+    }
+
+    /**
+     * 读取磁盘前取得当前写入代数，放入内存时用于判断读取期间是否有写入
+     */
+    public long generation() {
+        return generation.get();
+    }
+
+    /**
+     * 放入从磁盘读取的内容；读取期间发生过写入时放弃，避免旧内容覆盖失效结果
+     */
+    public void put(CacheEntry entry, byte[] content, long readGeneration) {
+        if (!fits(content.length)) {
+            return;
+        }
+        Item item;
+        if (arena != null) {
+            ByteBuffer[] pages = arena.store(content);
+            if (pages == null) {
+                return;
+            }
+            item = new Item(entry, null, pages, content.length, arena);
+        } else {
+            item = new Item(entry, content, null, content.length, null);
+        }
+        Item stored = cache.asMap().compute(entry.getPath(), (path, existing) -> {
+            if (generation.get() != readGeneration) {
+                return existing;
+            }
+            statsFor(path).bytes.addAndGet(content.length);
+            return item;
+        });
+        if (stored != item) {
+            item.release();
+        }
+    }
+
+    /**
+     * 磁盘文件发生变化后调用，先递增写入代数再移除条目
+     */
+    public void invalidate(Path path) {
+        generation.incrementAndGet();
+        cache.asMap().remove(path);
+    }
+
+    private SiteStats statsFor(Path path) {
+        Path relative = path.startsWith(cacheRoot) ? cacheRoot.relativize(path) : path;
+        String site = relative.getNameCount() > 1 ? relative.getName(0).toString() : "";
+        return siteStats.computeIfAbsent(site, key -> new SiteStats());
+    }
+
+    public Map<String, Object> getStats() {
+        CacheStats cacheStats = cache.stats();
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("entries", cache.estimatedSize());
+        stats.put("weightedBytes", cache.policy().eviction()
+                .map(eviction -> eviction.weightedSize().orElse(0L)).orElse(0L));
+        stats.put("hitRate", cacheStats.hitRate());
+        stats.put("evictionCount", cacheStats.evictionCount());
+        stats.put("evictionBytes", cacheStats.evictionWeight());
+        Map<String, Object> sites = new LinkedHashMap<>();
+        siteStats.forEach((site, siteStat) -> {
+            Map<String, Object> map = new LinkedHashMap<>();
+            map.put("hits", siteStat.hits.get());
+            map.put("misses", siteStat.misses.get());
+            map.put("bytes", siteStat.bytes.get());
+            sites.put(site, map);
+        });
+        stats.put("sites", sites);
+        if (arena != null) {
+            stats.put("offHeap", arena.getStats());
+        }
+        return stats;
+    }
+
+    /**
+     * 内存中的缓存条目：文件信息和内容。
+     * 堆外内容带引用计数，读取前retain、读取后release，条目被移除且没有读取方时页才归还给arena
+     */
+    public static class Item {
+        @Getter
+        private final CacheEntry entry;
+        private final byte[] content;
+        private final ByteBuffer[] pages;
+        private final int length;
+        private final OffHeapArena arena;
+        // 初始引用由缓存持有，移除时释放
+        private final AtomicInteger refs = new AtomicInteger(1);
+
+        private Item(CacheEntry entry, byte[] content, ByteBuffer[] pages, int length, OffHeapArena arena) {
+            this.entry = entry;
+            this.content = content;
+            this.pages = pages;
+            this.length = length;
+            this.arena = arena;
+        }
+
+        public int length() {
+            return length;
+        }
+
+        /**
+         * 增加引用，条目已被释放时返回false
+         */
+        public boolean retain() {
+            int current;
+            do {
+                current = refs.get();
+                if (current <= 0) {
+                    return false;
+                }
+            } while (!refs.compareAndSet(current, current + 1));
+            return true;
+        }
+
+        public void release() {
+            if (refs.decrementAndGet() == 0 && pages != null) {
+                arena.free(pages);
+            }
+        }
+
+        /**
+         * 返回内容数组：堆内条目直接返回，堆外条目复制一份；条目已被释放时返回null
+         */
+        public byte[] toBytes() {
+            if (content != null) {
+                return content;
+            }
+            if (!retain()) {
+                return null;
+            }
+            try {
+                byte[] data = new byte[length];
+                int offset = 0;
+                for (ByteBuffer page : pages) {
+                    ByteBuffer view = page.duplicate();
+                    int size = view.remaining();
+                    view.get(data, offset, size);
+                    offset += size;
+                }
+                return data;
+            } finally {
+                release();
+            }
+        }
+
+        /**
+         * 把内容写到输出流，堆外条目直接从直接内存写出；调用方需已持有引用
+         */
+        public void writeTo(OutputStream out) throws IOException {
+            if (content != null) {
+                out.write(content);
+                return;
+            }
+            WritableByteChannel channel = Channels.newChannel(out);
+            for (ByteBuffer page : pages) {
+                ByteBuffer view = page.duplicate();
+                while (view.hasRemaining()) {
+                    channel.write(view);
+                }
+            }
+        }
+    }
+
+    private static class SiteStats {
+        private final AtomicLong hits = new AtomicLong();
+        private final AtomicLong misses = new AtomicLong();
+        private final AtomicLong bytes = new AtomicLong();
+    }
+}
@@ -0,0 +1,97 @@
+package com.site.util;
+
+import java.nio.ByteBuffer;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 堆外slab分配器：按需分配固定大小的直接内存slab并切成等长的页，一个条目占用若干页，
+ * 页释放后回到空闲队列复用，slab本身不归还，直接内存占用不超过容量上限。
+ * 所有条目共用同一种页，不会出现按大小分级时某一级耗尽、其余级空闲的情况
+ */
+public class OffHeapArena {
+
+    public static final int PAGE_SIZE = 4096;
+    private static final int SLAB_SIZE = 4 * 1024 * 1024;
+
+    private final long capacity;
+    private final Queue<ByteBuffer> freePages = new ConcurrentLinkedQueue<>();
+    private final AtomicLong allocatedBytes = new AtomicLong();
+    private final AtomicLong usedPages = new AtomicLong();
+    private final AtomicLong allocationFailures = new AtomicLong();
+
+    public OffHeapArena(long capacity) {
+        // 向上取整到整数个slab
+        this.capacity = (capacity + SLAB_SIZE - 1) / SLAB_SIZE * SLAB_SIZE;
+    }
+
+    /**
+     * 分配足够的页并写入内容，空间不足时返回null
+     */
+    public ByteBuffer[] store(byte[] content) {
+        int pageCount = Math.max(1, (content.length + PAGE_SIZE - 1) / PAGE_SIZE);
+        ByteBuffer[] pages = new ByteBuffer[pageCount];
+        for (int i = 0; i < pageCount; i++) {
+            ByteBuffer page = freePages.poll();
+            if (page == null) {
+                page = allocateSlab();
+            }
+            if (page == null) {
+                allocationFailures.incrementAndGet();
+                free(pages);
+                return null;
+            }
+            usedPages.incrementAndGet();
+            int offset = i * PAGE_SIZE;
+            page.clear();
+            page.put(content, offset, Math.min(PAGE_SIZE, content.length - offset)).flip();
+            pages[i] = page;
+        }
+        return pages;
+    }
+
+    /**
+     * 归还页，调用方保证之后不再访问
+     */
+    public void free(ByteBuffer[] pages) {
+        for (ByteBuffer page : pages) {
+            if (page != null) {
+                usedPages.decrementAndGet();
+                freePages.offer(page);
+            }
+        }
+    }
+
+    private ByteBuffer allocateSlab() {
+        long allocated;
+        do {
+            allocated = allocatedBytes.get();
+            if (allocated + SLAB_SIZE > capacity) {
+                return null;
+            }
+        } while (!allocatedBytes.compareAndSet(allocated, allocated + SLAB_SIZE));
+        ByteBuffer slab = ByteBuffer.allocateDirect(SLAB_SIZE);
+        ByteBuffer first = null;
+        for (int offset = 0; offset < SLAB_SIZE; offset += PAGE_SIZE) {
+            ByteBuffer page = slab.duplicate().position(offset).limit(offset + PAGE_SIZE).slice();
+            if (first == null) {
+                first = page;
+            } else {
+                freePages.offer(page);
+            }
+        }
+        return first;
+    }
+
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("capacity", capacity);
+        stats.put("allocatedBytes", allocatedBytes.get());
+        stats.put("usedBytes", usedPages.get() * PAGE_SIZE);
+        stats.put("allocationFailures", allocationFailures.get());
+        return stats;
+    }
+}
@@ -0,0 +1,430 @@
+package com.site.util;
+
+import com.site.config.ProxyConfig;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BiConsumer;
+import java.util.zip.CRC32;
+
+/**
+ * 小对象的段文件存储：对象依次追加到固定大小的段文件中，内存中保存 路径 -> 段内偏移 的索引，
+ * 读取时直接从内存映射的段中取出，不再为每个对象打开文件。
+ * 覆盖和删除只追加新记录（删除写入墓碑），旧记录成为无效空间，由后台整理把有效记录复制到当前段后删除旧段
+ */
+@Slf4j
+@Component
+public class PackStore {
+
+    static final String PACK_DIR = "#pack";
+    private static final int SEGMENT_SIZE = 64 * 1024 * 1024;
+    private static final int MAGIC = 0x50434B31;
+    // magic、key长度、数据长度（墓碑为-1）、修改时间、CRC32
+    private static final int HEADER_SIZE = 4 + 2 + 4 + 8 + 4;
+    private static final int TOMBSTONE = -1;
+    // 有效数据占比低于该值的段参与整理
+    private static final double COMPACT_LIVE_RATIO = 0.5;
+
+    private final boolean enabled;
+    private final int maxObjectSize;
+    private final ProxyConfig proxyConfig;
+    private final Path cacheRoot = Paths.get(CacheUtil.CACHE_DIR).toAbsolutePath();
+    private final Path packDir = cacheRoot.resolve(PACK_DIR);
+    private final Map<Path, Location> index = new ConcurrentHashMap<>();
+    private final ConcurrentSkipListMap<Long, Segment> segments = new ConcurrentSkipListMap<>();
+    private final AtomicLong compactions = new AtomicLong();
+    private final AtomicLong reclaimedBytes = new AtomicLong();
+    // 由this保护
+    private Segment active;
+
+    public PackStore(ProxyConfig proxyConfig) {
+        this.proxyConfig = proxyConfig;
+        this.enabled = proxyConfig.getCacheStorage() == ProxyConfig.CacheStorage.PACK;
+        this.maxObjectSize = (int) Math.min(proxyConfig.getCachePackMaxObjectSize(), SEGMENT_SIZE / 16);
+    }
+
+    /**
+     * 启动时按段的先后顺序重放所有记录，重建索引；在缓存索引扫描之前完成
+     */
+    @PostConstruct
+    public void recover() throws IOException {
+        if (!enabled) {
+            return;
+        }
+        Files.createDirectories(packDir);
+        List<Long> ids = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(packDir, "segment-*.pack")) {
+            for (Path file : stream) {
+                String name = file.getFileName().toString();
+                ids.add(Long.parseLong(name.substring("segment-".length(), name.length() - ".pack".length())));
+            }
+        }
+        ids.sort(null);
+        long start = System.currentTimeMillis();
+        for (long id : ids) {
+            Segment segment = openSegment(id);
+            replay(segment);
+            segments.put(id, segment);
+            active = segment;
+        }
+        if (active == null) {
+            active = newSegment(1);
+        }
+        log.info("段文件存储已加载: {} 个段, {} 个对象, 耗时 {} ms",
+                segments.size(), index.size(), System.currentTimeMillis() - start);
+    }
+
+    private void replay(Segment segment) {
+        int position = 0;
+        while (true) {
+            Record record = readRecord(segment, position);
+            if (record == null) {
+                // 段尾或写入中断的记录，之后的内容不可信
+                break;
+            }
+            if (record.dataLength == TOMBSTONE) {
+                Location previous = index.remove(record.path);
+                if (previous != null) {
+                    previous.segment.liveBytes.addAndGet(-previous.recordSize());
+                }
+            } else {
+                Location location = new Location(segment, record.dataOffset, record.dataLength,
+                        record.keyLength, record.lastModified);
+                segment.liveBytes.addAndGet(location.recordSize());
+                Location previous = index.put(record.path, location);
+                if (previous != null) {
+                    previous.segment.liveBytes.addAndGet(-previous.recordSize());
+                }
+            }
+            position = record.end;
+        }
+        segment.writePosition = position;
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * 内容不超过该大小的对象写入段文件
+     */
+    public boolean accepts(long size) {
+        return enabled && size <= maxObjectSize;
+    }
+
+    public Location get(Path path) {
+        return enabled ? index.get(path) : null;
+    }
+
+    /**
+     * 返回对象内容的只读视图，直接指向内存映射的段
+     */
+    public ByteBuffer read(Location location) {
+        return location.segment.buffer.slice(location.offset, location.length).asReadOnlyBuffer();
+    }
+
+    /**
+     * 追加对象并更新索引，返回新位置；修改时间取写入时间
+     */
+    public synchronized Location put(Path path, byte[] data) throws IOException {
+        Location location = append(path, ByteBuffer.wrap(data), data.length, System.currentTimeMillis());
+        Location previous = index.put(path, location);
+        if (previous != null) {
+            previous.segment.liveBytes.addAndGet(-previous.recordSize());
+        }
+        return location;
+    }
+
+    /**
+     * 删除对象：写入墓碑，重启后不会恢复；对象不存在时返回false
+     */
+    public synchronized boolean remove(Path path) throws IOException {
+        if (!enabled) {
+            return false;
+        }
+        Location previous = index.remove(path);
+        if (previous == null) {
+            return false;
+        }
+        previous.segment.liveBytes.addAndGet(-previous.recordSize());
+        append(path, null, TOMBSTONE, 0);
+        return true;
+    }
+
+    /**
+     * 遍历所有对象，用于缓存索引建立
+     */
+    public void forEach(BiConsumer<Path, Location> action) {
+        index.forEach(action);
+    }
+
+    private Location append(Path path, ByteBuffer data, int dataLength, long lastModified) throws IOException {
+        byte[] key = cacheRoot.relativize(path).toString().getBytes(StandardCharsets.UTF_8);
+        int recordSize = HEADER_SIZE + key.length + Math.max(dataLength, 0);
+        if (active.writePosition + recordSize > SEGMENT_SIZE) {
+            active = newSegment(active.id + 1);
+        }
+        Segment segment = active;
+        int position = segment.writePosition;
+        CRC32 crc = new CRC32();
+        crc.update(key);
+        if (data != null) {
+            crc.update(data.duplicate());
+        }
+        ByteBuffer view = segment.buffer.duplicate();
+        view.position(position);
+        view.putInt(MAGIC);
+        view.putShort((short) key.length);
+        view.putInt(dataLength);
+        view.putLong(lastModified);
+        view.putInt((int) crc.getValue());
+        view.put(key);
+        if (data != null) {
+            view.put(data.duplicate());
+        }
+        if (proxyConfig.getCacheFsync() != ProxyConfig.FsyncPolicy.NONE) {
+            segment.buffer.force(position, recordSize);
+        }
+        segment.writePosition = position + recordSize;
+        if (dataLength == TOMBSTONE) {
+            return null;
+        }
+        Location location = new Location(segment, position + HEADER_SIZE + key.length, dataLength, key.length, lastModified);
+        segment.liveBytes.addAndGet(location.recordSize());
+        return location;
+    }
+
+    /**
+     * 整理有效数据占比低的旧段：仍然有效的记录复制到当前段，之后删除旧段文件。
+     * 正在读取旧段的请求不受影响，映射在不再被引用后才释放，旧段文件删除成功后才从segments中移除
+     */
+    public void compact() {
+        if (!enabled) {
+            return;
+        }
+        for (Segment segment : new ArrayList<>(segments.values())) {
+            if (segment.retired) {
+                // 上次删除失败的旧段，映射释放后重试
+                deleteRetired(segment);
+                continue;
+            }
+            if (segment == active || segment.writePosition == 0
+                    || segment.liveBytes.get() >= segment.writePosition * COMPACT_LIVE_RATIO) {
+                continue;
+            }
+            try {
+                compact(segment);
+            } catch (IOException e) {
+                log.error("整理段文件失败: {}", segment.file, e);
+                return;
+            }
+        }
+    }
+
+    private void compact(Segment segment) throws IOException {
+        int position = 0;
+        while (position < segment.writePosition) {
+            Record record = readRecord(segment, position);
+            if (record == null) {
+                break;
+            }
+            synchronized (this) {
+                Location current = index.get(record.path);
+                if (record.dataLength == TOMBSTONE) {
+                    // 更早的段中可能还有该对象的记录，墓碑需保留到那些段被整理掉
+                    if (current == null && segments.lowerKey(segment.id) != null) {
+                        append(record.path, null, TOMBSTONE, 0);
+                    }
+                } else if (current != null && current.segment == segment && current.offset == record.dataOffset) {
+                    Location moved = append(record.path, read(current), current.length, current.lastModified);
+                    index.put(record.path, moved);
+                    segment.liveBytes.addAndGet(-current.recordSize());
+                }
+            }
+            position = record.end;
+        }
+        segment.retired = true;
+        segment.channel.close();
+        compactions.incrementAndGet();
+        log.info("段文件已整理: {}", segment.file.getFileName());
+        deleteRetired(segment);
+    }
+
+    /**
+     * 删除已整理的旧段文件。映射要等到不再被引用、被回收后才释放，部分系统上映射未释放前删除会失败，
+     * 此时保留在segments中（更新段中对应的墓碑也因此保留），下次整理时重试
+     */
+    private void deleteRetired(Segment segment) {
+        try {
+            Files.deleteIfExists(segment.file);
+        } catch (IOException e) {
+            log.debug("段文件暂时无法删除，稍后重试: {} {}", segment.file.getFileName(), e.getMessage());
+            return;
+        }
+        synchronized (this) {
+            segments.remove(segment.id);
+        }
+        reclaimedBytes.addAndGet(segment.writePosition);
+    }
+
+    /**
+     * 读取position处的记录头，记录不完整或校验失败时返回null
+     */
+    private Record readRecord(Segment segment, int position) {
+        ByteBuffer view = segment.buffer.duplicate();
+        if (position + HEADER_SIZE > SEGMENT_SIZE) {
+            return null;
+        }
+        view.position(position);
+        if (view.getInt() != MAGIC) {
+            return null;
+        }
+        int keyLength = view.getShort() & 0xFFFF;
+        int dataLength = view.getInt();
+        long lastModified = view.getLong();
+        int checksum = view.getInt();
+        // 数据长度来自文件，损坏时可能接近Integer.MAX_VALUE，先与剩余空间比较再求和，避免int溢出
+        if (dataLength < TOMBSTONE || keyLength > SEGMENT_SIZE - position - HEADER_SIZE
+                || dataLength > SEGMENT_SIZE - position - HEADER_SIZE - keyLength) {
+            return null;
+        }
+        int end = position + HEADER_SIZE + keyLength + Math.max(dataLength, 0);
+        byte[] key = new byte[keyLength];
+        view.get(key);
+        CRC32 crc = new CRC32();
+        crc.update(key);
+        if (dataLength > 0) {
+            crc.update(segment.buffer.slice(view.position(), dataLength));
+        }
+        if ((int) crc.getValue() != checksum) {
+            return null;
+        }
+        Path path = cacheRoot.resolve(new String(key, StandardCharsets.UTF_8));
+        return new Record(path, keyLength, dataLength, lastModified, view.position(), end);
+    }
+
+    private Segment newSegment(long id) throws IOException {
+        Segment segment = openSegment(id);
+        segments.put(id, segment);
+        return segment;
+    }
+
+    private Segment openSegment(long id) throws IOException {
+        Path file = packDir.resolve(String.format("segment-%08d.pack", id));
+        FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE,
+                StandardOpenOption.READ, StandardOpenOption.WRITE);
+        // 按段的最大长度映射，未写入的部分在文件系统中是稀疏的
+        MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, SEGMENT_SIZE);
+        return new Segment(id, file, channel, buffer);
+    }
+
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("enabled", enabled);
+        stats.put("objects", index.size());
+        stats.put("segments", segments.size());
+        long liveBytes = 0;
+        long writtenBytes = 0;
+        int retired = 0;
+        for (Segment segment : segments.values()) {
+            if (segment.retired) {
+                retired++;
+                continue;
+            }
+            liveBytes += segment.liveBytes.get();
+            writtenBytes += segment.writePosition;
+        }
+        stats.put("liveBytes", liveBytes);
+        stats.put("writtenBytes", writtenBytes);
+        stats.put("pendingDelete", retired);
+        stats.put("compactions", compactions.get());
+        stats.put("reclaimedBytes", reclaimedBytes.get());
+        return stats;
+    }
+
+    /**
+     * 对象在段中的位置
+     */
+    public static class Location {
+        private final Segment segment;
+        private final int offset;
+        private final int length;
+        private final int keyLength;
+        private final long lastModified;
+
+        private Location(Segment segment, int offset, int length, int keyLength, long lastModified) {
+            this.segment = segment;
+            this.offset = offset;
+            this.length = length;
+            this.keyLength = keyLength;
+            this.lastModified = lastModified;
+        }
+
+        public int getLength() {
+            return length;
+        }
+
+        public long getLastModified() {
+            return lastModified;
+        }
+
+        private int recordSize() {
+            return HEADER_SIZE + keyLength + length;
+        }
+    }
+
+    private static class Segment {
+        private final long id;
+        private final Path file;
+        private final FileChannel channel;
+        private final MappedByteBuffer buffer;
+        private final AtomicLong liveBytes = new AtomicLong();
+        // 追加由PackStore的锁保护，读取只访问索引中已发布的位置
+        private volatile int writePosition;
+        // 有效记录已复制到新段，等待删除文件
+        private volatile boolean retired;
+
+        private Segment(long id, Path file, FileChannel channel, MappedByteBuffer buffer) {
+            this.id = id;
+            this.file = file;
+            this.channel = channel;
+            this.buffer = buffer;
+        }
+    }
+
+    private static class Record {
+        private final Path path;
+        private final int keyLength;
+        private final int dataLength;
+        private final long lastModified;
+        private final int dataOffset;
+        private final int end;
+
+        private Record(Path path, int keyLength, int dataLength, long lastModified, int dataOffset, int end) {
+            this.path = path;
+            this.keyLength = keyLength;
+            this.dataLength = dataLength;
+            this.lastModified = lastModified;
+            this.dataOffset = dataOffset;
+            this.end = end;
+        }
+    }
+}
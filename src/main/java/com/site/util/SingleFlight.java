@@ -0,0 +1,101 @@
+package com.site.util;
+
+import org.springframework.stereotype.Component;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+/**
+ * 请求合并：同一个key同时只有一个调用方回源，其余调用方等待它的结果
+ */
+@Component
+public class SingleFlight {
+
+    private final Map<String, CompletableFuture<Object>> inFlight = new ConcurrentHashMap<>();
+    // 实际回源次数
+    private final AtomicLong executions = new AtomicLong();
+    // 被合并的请求数
+    private final AtomicLong collapsed = new AtomicLong();
+    // 等待超时的请求数
+    private final AtomicLong timeouts = new AtomicLong();
+
+    /**
+     * 阻塞方式执行，等待其他调用方结果最多timeoutMillis毫秒
+     */
+    @SuppressWarnings("unchecked")
+    public <T> T execute(String key, Callable<T> loader, long timeoutMillis) throws Exception {
+        CompletableFuture<Object> future = new CompletableFuture<>();
+        CompletableFuture<Object> existing = inFlight.putIfAbsent(key, future);
+        if (existing != null) {
+            try {
+                T value = (T) existing.get(timeoutMillis, TimeUnit.MILLISECONDS);
+                // 只统计实际拿到结果的请求，超时或失败后自行处理的不算合并
+                collapsed.incrementAndGet();
+                return value;
+            } catch (TimeoutException e) {
+                timeouts.incrementAndGet();
+                throw new TimeoutException("等待合并请求超时: " + key);
+            } catch (ExecutionException e) {
+                Throwable cause = e.getCause();
+                throw cause instanceof Exception ? (Exception) cause : e;
+            }
+        }
+        executions.incrementAndGet();
+        try {
+            T value = loader.call();
+            inFlight.remove(key, future);
+            future.complete(value);
+            return value;
+        } catch (Throwable e) {
+            // Error也要移除并完成，否则之后的请求都会等待到超时
+            inFlight.remove(key, future);
+            future.completeExceptionally(e);
+            throw e;
+        }
+    }
+
+    /**
+     * 非阻塞方式执行，等待中的调用方直接拿到同一个future
+     */
+    @SuppressWarnings("unchecked")
+    public <T> CompletableFuture<T> submit(String key, Supplier<CompletableFuture<T>> loader) {
+        CompletableFuture<Object> future = new CompletableFuture<>();
+        CompletableFuture<Object> existing = inFlight.putIfAbsent(key, future);
+        if (existing != null) {
+            existing.thenRun(collapsed::incrementAndGet);
+            return (CompletableFuture<T>) existing;
+        }
+        executions.incrementAndGet();
+        try {
+            loader.get().whenComplete((value, ex) -> {
+                inFlight.remove(key, future);
+                if (ex != null) {
+                    future.completeExceptionally(ex);
+                } else {
+                    future.complete(value);
+                }
+            });
+        } catch (RuntimeException e) {
+            inFlight.remove(key, future);
+            future.completeExceptionally(e);
+        }
+        return (CompletableFuture<T>) future;
+    }
+
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("inFlight", inFlight.size());
+        stats.put("executions", executions.get());
+        stats.put("collapsed", collapsed.get());
+        stats.put("timeouts", timeouts.get());
+        return stats;
+    }
+}
@@ -0,0 +1,171 @@
+package com.site.util;
+
+import com.site.entity.Site;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * 请求主机到站点的路由表，由全部站点一次构建，构建后只读，可多线程共用；站点变化时整体重建后替换，
+ * 路由表外查到的单个站点通过with生成加入该站点的新表。
+ * 匹配顺序：
+ * <ul>
+ *     <li>站点名称（域名），如 www.example.com</li>
+ *     <li>站点地址与主机完全相同时作为别名，兼容原来按url查询的行为</li>
+ *     <li>以*.开头的站点名称匹配所有子域名，如 *.example.com 匹配 a.example.com、a.b.example.com，更长的后缀优先</li>
+ * </ul>
+ * 主机不区分大小写
+ */
+public final class SiteRoutingTable {
+
+    public static final SiteRoutingTable EMPTY = new SiteRoutingTable(new HashMap<>(), new Wildcard[0][], 0);
+
+    private static final String WILDCARD_PREFIX = "*.";
+
+    private final Map<String, Site> exact;
+    // 通配站点按去掉*.后的后缀长度分组，查找时按主机中的位置直接比较，不截取子串
+    private final Wildcard[][] wildcardsByLength;
+    private final int size;
+
+    private SiteRoutingTable(Map<String, Site> exact, Wildcard[][] wildcardsByLength, int size) {
+        this.exact = exact;
+        this.wildcardsByLength = wildcardsByLength;
+        this.size = size;
+    }
+
+    /**
+     * 名称重复时先出现的站点生效；名称优先于其他站点的地址别名
+     */
+    public static SiteRoutingTable build(Collection<Site> sites) {
+        Map<String, Site> exact = new HashMap<>(sites.size() * 2);
+        Map<String, Site> wildcards = new HashMap<>();
+        for (Site site : sites) {
+            String name = normalizeName(site.getName());
+            if (name == null) {
+                continue;
+            }
+            if (name.startsWith(WILDCARD_PREFIX)) {
+                wildcards.putIfAbsent(name.substring(WILDCARD_PREFIX.length()), site);
+            } else {
+                exact.putIfAbsent(name, site);
+            }
+        }
+        for (Site site : sites) {
+            String alias = normalize(site.getUrl());
+            if (alias != null) {
+                exact.putIfAbsent(alias, site);
+            }
+        }
+        int maxLength = 0;
+        for (String suffix : wildcards.keySet()) {
+            maxLength = Math.max(maxLength, suffix.length());
+        }
+        Wildcard[][] byLength = new Wildcard[wildcards.isEmpty() ? 0 : maxLength + 1][];
+        wildcards.forEach((suffix, site) -> {
+            Wildcard[] group = byLength[suffix.length()];
+            group = group == null ? new Wildcard[1] : Arrays.copyOf(group, group.length + 1);
+            group[group.length - 1] = new Wildcard(suffix, site);
+            byLength[suffix.length()] = group;
+        });
+        return new SiteRoutingTable(exact, byLength, sites.size());
+    }
+
+    /**
+     * 返回加入 主机 -> 站点 精确映射后的新表，原表不变；用于把路由表外查到的单个站点加入路由，无需整体重建
+     */
+    public SiteRoutingTable with(String host, Site site) {
+        String key = normalize(host);
+        if (key == null) {
+            return this;
+        }
+        Map<String, Site> copy = new HashMap<>(exact);
+        copy.put(key, site);
+        return new SiteRoutingTable(copy, wildcardsByLength, size);
+    }
+
+    /**
+     * 站点名称中的协议部分忽略（申请证书时同样去掉）
+     */
+    private static String normalizeName(String name) {
+        String host = normalize(name);
+        if (host == null) {
+            return null;
+        }
+        int scheme = host.indexOf("://");
+        return scheme >= 0 ? normalize(host.substring(scheme + 3)) : host;
+    }
+
+    private static String normalize(String value) {
+        if (value == null || value.isBlank()) {
+            return null;
+        }
+        String host = value.trim().toLowerCase(Locale.ROOT);
+        while (host.endsWith("/")) {
+            host = host.substring(0, host.length() - 1);
+        }
+        return host.isEmpty() ? null : host;
+    }
+
+    /**
+     * 主机对应的站点，没有时返回null。主机已是小写且精确命中时不产生新对象
+     */
+    public Site lookup(String host) {
+        if (host == null || host.isEmpty()) {
+            return null;
+        }
+        Site site = exact.get(host);
+        if (site != null) {
+            return site;
+        }
+        if (hasUpperCase(host)) {
+            host = host.toLowerCase(Locale.ROOT);
+            site = exact.get(host);
+            if (site != null) {
+                return site;
+            }
+        }
+        if (wildcardsByLength.length == 0) {
+            return null;
+        }
+        // 从最长的父域名开始，a.b.example.com 依次查 b.example.com、example.com、com
+        for (int dot = host.indexOf('.'); dot >= 0; dot = host.indexOf('.', dot + 1)) {
+            int length = host.length() - dot - 1;
+            if (length >= wildcardsByLength.length || wildcardsByLength[length] == null) {
+                continue;
+            }
+            for (Wildcard wildcard : wildcardsByLength[length]) {
+                if (host.regionMatches(dot + 1, wildcard.suffix, 0, length)) {
+                    return wildcard.site;
+                }
+            }
+        }
+        return null;
+    }
+
+    private static boolean hasUpperCase(String host) {
+        for (int i = 0; i < host.length(); i++) {
+            char c = host.charAt(i);
+            if (c >= 'A' && c <= 'Z') {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    private static final class Wildcard {
+        private final String suffix;
+        private final Site site;
+
+        private Wildcard(String suffix, Site site) {
+            this.suffix = suffix;
+            this.site = site;
+        }
+    }
+}
@@ -20,8 +20,19 @@ CREATE TABLE IF NOT EXISTS site (
     is_cache INTEGER DEFAULT 1,
     is_ssl INTEGER DEFAULT 1,
     sitemap INTEGER DEFAULT 1,
-    sync_source VARCHAR(255)
+    sync_source VARCHAR(255),
+    cache_ttl INTEGER DEFAULT 0,
+    stale_while_revalidate INTEGER DEFAULT 0,
+    stale_if_error INTEGER DEFAULT 0,
+    html_cache_ttl INTEGER DEFAULT 0,
+    cache_min_ttl INTEGER DEFAULT 0,
+    cache_max_ttl INTEGER DEFAULT 0,
+    honor_no_cache INTEGER DEFAULT 0
 );
+
+-- 已有数据库新增的站点字段由DatabaseConfig在创建数据源时补充，新增字段时两处同时修改。
+-- 升级说明：源站返回Cache-Control: no-store的内容不再写入缓存；no-cache/private默认忽略，
+-- 按站点默认有效期缓存，需要遵循时把站点的honor_no_cache设为1
  
 
 -- 证书表